@@ -0,0 +1,15 @@
+-- Upgrades an existing database to the current HAIBA-SHAK-MSSQL.sql. Can be run again, what exists is left as it is.
+IF COL_LENGTH('FGRImporterStatus', 'Digest') IS NULL
+    ALTER TABLE FGRImporterStatus ADD
+        Digest VARCHAR(64),
+        RowsInserted INT,
+        RowsUpdated INT,
+        RowsDeleted INT;
+
+IF OBJECT_ID('FGRImporterLease', 'U') IS NULL
+    CREATE TABLE FGRImporterLease (
+        Type VARCHAR(20) NOT NULL PRIMARY KEY,
+        Owner VARCHAR(100) NOT NULL,
+        AcquiredAt DATETIME NOT NULL,
+        ExpiresAt DATETIME NOT NULL
+    );
@@ -27,6 +27,17 @@ CREATE TABLE FGRImporterStatus (
     StartTime DATETIME NOT NULL,
     EndTime DATETIME,
     Outcome VARCHAR(20),
-    ErrorMessage VARCHAR(200)
+    ErrorMessage VARCHAR(200),
+    Digest VARCHAR(64),
+    RowsInserted INT,
+    RowsUpdated INT,
+    RowsDeleted INT
+);
+
+CREATE TABLE FGRImporterLease (
+    Type VARCHAR(20) NOT NULL PRIMARY KEY,
+    Owner VARCHAR(100) NOT NULL,
+    AcquiredAt DATETIME NOT NULL,
+    ExpiresAt DATETIME NOT NULL
 );
 
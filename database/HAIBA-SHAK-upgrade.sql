@@ -0,0 +1,15 @@
+-- Upgrades an existing HAIBA database to the current HAIBA-SHAK.sql. Run once, the ALTER fails if the columns exist.
+USE HAIBA;
+
+ALTER TABLE FGRImporterStatus
+    ADD COLUMN Digest VARCHAR(64),
+    ADD COLUMN RowsInserted INT,
+    ADD COLUMN RowsUpdated INT,
+    ADD COLUMN RowsDeleted INT;
+
+CREATE TABLE IF NOT EXISTS FGRImporterLease (
+    Type VARCHAR(20) NOT NULL PRIMARY KEY,
+    Owner VARCHAR(100) NOT NULL,
+    AcquiredAt DATETIME NOT NULL,
+    ExpiresAt DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
@@ -36,8 +36,19 @@ CREATE TABLE IF NOT EXISTS FGRImporterStatus (
     EndTime DATETIME,
     Outcome VARCHAR(20),
     ErrorMessage VARCHAR(200),
+    Digest VARCHAR(64),
+    RowsInserted INT,
+    RowsUpdated INT,
+    RowsDeleted INT,
 
     INDEX (StartTime)
 ) ENGINE=InnoDB COLLATE=utf8_bin;
 
+CREATE TABLE IF NOT EXISTS FGRImporterLease (
+    Type VARCHAR(20) NOT NULL PRIMARY KEY,
+    Owner VARCHAR(100) NOT NULL,
+    AcquiredAt DATETIME NOT NULL,
+    ExpiresAt DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
+
 
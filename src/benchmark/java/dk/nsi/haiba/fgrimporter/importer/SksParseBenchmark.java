@@ -0,0 +1,112 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+
+import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+
+/**
+ * Compares time and heap allocation of {@link SKSParser} with the LineIterator based parsing it replaced. Not a unit
+ * test, it is compiled with the benchmark profile (mvn -Pbenchmark test-compile) and run by hand:
+ * <p/>
+ * java SksParseBenchmark [SHAKCOMPLETE.TXT [threads]]
+ * <p/>
+ * Without an argument the SHAKCOMPLETE.TXT test file is used. The parallel parse is run with the given number of
+ * threads, by default the number of processors. Allocation is measured with the HotSpot specific
+ * com.sun.management.ThreadMXBean.
+ */
+public class SksParseBenchmark {
+    private static final int ROUNDS = 50;
+    private static final String[] TYPES = { Organisation.RECORD_TYPE_DEPARTMENT, Organisation.RECORD_TYPE_HOSPITAL };
+    private static final RecordSink<Organisation> NO_SINK = new RecordSink<Organisation>() {
+        @Override
+        public void add(Organisation record) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        final File file = args.length > 0 ? new File(args[0]) : FileUtils.toFile(SksParseBenchmark.class
+                .getClassLoader().getResource("data/sks/SHAKCOMPLETE.TXT"));
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final SKSParser<Organisation> parser = new SKSParser<Organisation>(Organisation.class, TYPES);
+        final SKSParser<Organisation> parallelParser = new SKSParser<Organisation>(Organisation.class, TYPES);
+        parallelParser.setParseThreads(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        parallelParser.setExecutor(executor);
+        double mb = file.length() / (1024d * 1024d);
+        System.out.println(String.format("%s, %.1f MB", file, mb));
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            run("lineiterator", mb, new Runnable() {
+                @Override
+                public void run() {
+                    LineIteratorParser.parse(file, TYPES);
+                }
+            });
+            run("scanner", mb, new Runnable() {
+                @Override
+                public void run() {
+                    parser.process(file, NO_SINK);
+                }
+            });
+            // the parsing threads are not the calling one, so allocation is not measured
+            run("parallel/" + threads, -1, new Runnable() {
+                @Override
+                public void run() {
+                    parallelParser.process(file, NO_SINK);
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private static void run(String name, double mb, Runnable parse) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long time = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            parse.run();
+        }
+        double ms = (System.nanoTime() - time) / 1e6 / ROUNDS;
+        double bytes = (threads.getThreadAllocatedBytes(id) - allocated) / (double) ROUNDS;
+        System.out.println(String.format("%-12s %8.2f ms %8s MB allocated/MB file", name, ms, mb < 0 ? "-" : String
+                .format("%.2f", bytes / (1024d * 1024d) / mb)));
+    }
+}
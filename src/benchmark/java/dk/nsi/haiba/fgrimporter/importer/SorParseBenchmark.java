@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.apache.commons.io.FileUtils;
+
+import dk.nsi.haiba.fgrimporter.model.SORDataSets;
+
+/**
+ * Measures time and heap allocation per megabyte when parsing a SOR xml file with the SAX and the StAX path of
+ * {@link SORImporter}. Not a unit test, it is compiled with the benchmark profile (mvn -Pbenchmark test-compile) and
+ * run by hand:
+ * <p/>
+ * java SorParseBenchmark [Sor.xml]
+ * <p/>
+ * Without an argument a synthetic file with the structure of Sor.xml is generated. Allocation is measured with the
+ * HotSpot specific com.sun.management.ThreadMXBean.
+ */
+public class SorParseBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        byte[] xml = args.length > 0 ? FileUtils.readFileToByteArray(new File(args[0])) : generate(20000);
+        double mb = xml.length / (1024d * 1024d);
+        System.out.println(String.format("%.1f MB of xml", mb));
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            run("sax", false, xml, mb);
+            run("stax", true, xml, mb);
+        }
+    }
+
+    private static void run(String name, boolean stax, byte[] xml, double mb) throws Exception {
+        SORImporter importer = new SORImporter();
+        importer.setStax(stax);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long time = System.nanoTime();
+        int records = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            SORDataSets dataSets = importer.parse(new ByteArrayInputStream(xml));
+            records = dataSets.getSygehusDS().size() + dataSets.getSygehusAfdelingDS().size();
+        }
+        double ms = (System.nanoTime() - time) / 1e6 / ROUNDS;
+        double bytes = (threads.getThreadAllocatedBytes(id) - allocated) / (double) ROUNDS;
+        System.out.println(String.format("%-5s %8.1f ms %8.1f MB allocated/MB xml %8d records", name, ms, bytes
+                / (1024d * 1024d) / mb, records));
+    }
+
+    private static byte[] generate(int owners) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<SorTreeCollection>\n");
+        long sor = 1000000000000L;
+        for (int o = 0; o < owners; o++) {
+            sb.append("<InstitutionOwnerEntity><InstitutionOwner>");
+            fields(sb, sor++, "Region " + o, 0);
+            sb.append("<RegionCode>1084</RegionCode></InstitutionOwner>\n");
+            sb.append("<HealthInstitutionEntity><HealthInstitution>");
+            fields(sb, sor++, "Sygehus " + o, 22232009L);
+            sb.append("<ShakIdentifier>").append(1300 + o).append("</ShakIdentifier></HealthInstitution>\n");
+            for (int u = 0; u < 3; u++) {
+                sb.append("<OrganizationalUnitEntity><OrganizationalUnit>");
+                fields(sb, sor++, "Afdeling " + o + "-" + u, 394714002L);
+                sb.append("<ShakIdentifier>").append(1300 + o).append(u).append("</ShakIdentifier>");
+                sb.append("<SpecialityIdentifier>394589003</SpecialityIdentifier></OrganizationalUnit>");
+                sb.append("</OrganizationalUnitEntity>\n");
+            }
+            sb.append("</HealthInstitutionEntity></InstitutionOwnerEntity>\n");
+        }
+        sb.append("</SorTreeCollection>\n");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static void fields(StringBuilder sb, long sor, String name, long type) {
+        sb.append("<SorIdentifier>").append(sor).append("</SorIdentifier>");
+        sb.append("<EntityName>").append(name).append(" - medicinsk afdeling, ambulatorium og sengeafsnit")
+                .append("</EntityName>");
+        if (type != 0) {
+            sb.append("<EntityTypeIdentifier>").append(type).append("</EntityTypeIdentifier>");
+        }
+        sb.append("<FromDate>2009-01-01</FromDate><ToDate>2999-12-31</ToDate>");
+        sb.append("<LastChangeDate>2013-05-02</LastChangeDate><EntityInheritanceIndicator>false")
+                .append("</EntityInheritanceIndicator>");
+        sb.append("<PostalAddressInformation><StreetName>Nørrebrogade</StreetName>")
+                .append("<StreetBuildingIdentifier>44</StreetBuildingIdentifier>")
+                .append("<PostCodeIdentifier>8000</PostCodeIdentifier><DistrictName>Aarhus C</DistrictName>")
+                .append("<RegionCode>1082</RegionCode></PostalAddressInformation>");
+        sb.append("<EanLocationCodeEntity><EanLocationCode>5790000").append(sor % 1000000)
+                .append("</EanLocationCode><RegionCode>1084</RegionCode></EanLocationCodeEntity>");
+        sb.append("<TelephoneNumberIdentifier>78450000</TelephoneNumberIdentifier>");
+    }
+}
@@ -44,22 +44,32 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jndi.JndiObjectFactoryBean;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import dk.nsi.haiba.fgrimporter.dao.SHAKRegionDAO;
 import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
 import dk.nsi.haiba.fgrimporter.dao.SORDAO;
+import dk.nsi.haiba.fgrimporter.dao.impl.BulkLoader;
 import dk.nsi.haiba.fgrimporter.dao.impl.GenericSKSLineDAOImpl;
 import dk.nsi.haiba.fgrimporter.dao.impl.SHAKDAOImpl;
 import dk.nsi.haiba.fgrimporter.dao.impl.SHAKRegionDAOImpl;
 import dk.nsi.haiba.fgrimporter.dao.impl.SORDAOImpl;
+import dk.nsi.haiba.fgrimporter.dao.impl.ShadowTableManager;
 import dk.nsi.haiba.fgrimporter.importer.ImportExecutor;
+import dk.nsi.haiba.fgrimporter.importer.ImportGuard;
+import dk.nsi.haiba.fgrimporter.importer.ImportJobs;
 import dk.nsi.haiba.fgrimporter.importer.SKSParser;
 import dk.nsi.haiba.fgrimporter.importer.SORImporter;
 import dk.nsi.haiba.fgrimporter.importer.ShakRegionImporter;
 import dk.nsi.haiba.fgrimporter.model.Organisation;
 import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.status.ImportLeaseRepository;
+import dk.nsi.haiba.fgrimporter.status.ImportLeaseRepositoryJdbcImpl;
 import dk.nsi.haiba.fgrimporter.status.ImportStatusRepository;
 import dk.nsi.haiba.fgrimporter.status.ImportStatusRepositoryJdbcImpl;
 import dk.nsi.haiba.fgrimporter.status.TimeSource;
@@ -73,7 +83,7 @@ import dk.sdsd.nsp.slalog.api.SLALogger;
 @Configuration
 @EnableScheduling
 @EnableTransactionManagement
-public class FGRConfiguration {
+public class FGRConfiguration implements SchedulingConfigurer {
     @Value("${jdbc.haibaJNDIName}")
     private String haibaJdbcJNDIName;
 
@@ -89,6 +99,21 @@ public class FGRConfiguration {
     @Value("${sks.remoteurl}")
     private String sksRemoteUrl;
 
+    @Value("${shak.delta:false}")
+    private boolean shakDelta;
+
+    @Value("${sks.delta:false}")
+    private boolean sksDelta;
+
+    @Value("${scheduler.poolsize:3}")
+    private int schedulerPoolSize;
+
+    @Value("${import.parse.threads:1}")
+    private int parseThreads;
+
+    @Value("${import.graph.poolsize:4}")
+    private int importGraphPoolSize;
+
     // this is not automatically registered, see https://jira.springsource.org/browse/SPR-8539
     @Bean
     public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
@@ -132,6 +157,24 @@ public class FGRConfiguration {
         return new SimpleThreadScopeConfigurer();
     }
 
+    /*
+     * The default scheduler has a single thread, which runs the sor, shak and sks jobs one after the other when their
+     * cron expressions coincide. With a pool they run in parallel. Steps that depend on each other, like shak and the
+     * shakregion post processing, are run by the same job
+     */
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.setScheduler(importScheduler());
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler importScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulerPoolSize);
+        scheduler.setThreadNamePrefix("import-");
+        return scheduler;
+    }
+
     @Bean
     public ImportStatusRepository statusRepo() {
         return new ImportStatusRepositoryJdbcImpl();
@@ -142,6 +185,45 @@ public class FGRConfiguration {
         return new ImportExecutor();
     }
 
+    /**
+     * Runs the manual imports started from the status page one after the other, the requests only queue them
+     */
+    @Bean
+    public ThreadPoolTaskExecutor manualImportExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("manual-import-");
+        return executor;
+    }
+
+    /**
+     * Runs the independent nodes of the import graph in parallel, by default one thread per import type
+     */
+    @Bean
+    public ThreadPoolTaskExecutor importGraphExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, importGraphPoolSize));
+        executor.setMaxPoolSize(Math.max(1, importGraphPoolSize));
+        executor.setThreadNamePrefix("import-graph-");
+        return executor;
+    }
+
+    @Bean
+    public ImportJobs importJobs() {
+        return new ImportJobs();
+    }
+
+    @Bean
+    public ImportGuard importGuard() {
+        return new ImportGuard();
+    }
+
+    @Bean
+    public ImportLeaseRepository importLeaseRepository() {
+        return new ImportLeaseRepositoryJdbcImpl();
+    }
+
     @Bean
     public TimeSource timeSource() {
         return new TimeSourceRealTimeImpl();
@@ -170,20 +252,50 @@ public class FGRConfiguration {
         return new GenericSKSLineDAOImpl();
     }
 
+    @Bean
+    public BulkLoader bulkLoader() {
+        return new BulkLoader();
+    }
+
+    @Bean
+    public ShadowTableManager shadowTableManager() {
+        return new ShadowTableManager();
+    }
+
     @Bean
     public SORDAO sorDao() {
         return new SORDAOImpl();
     }
 
+    /**
+     * Parses the ranges of the sks and shak files, shared by the parsers
+     */
+    @Bean
+    public ThreadPoolTaskExecutor parseExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, parseThreads));
+        executor.setMaxPoolSize(Math.max(1, parseThreads));
+        executor.setThreadNamePrefix("sksparser-");
+        executor.setDaemon(true);
+        return executor;
+    }
+
     @Bean
     public SKSParser<Organisation> shakParser() {
-        return new SKSParser<Organisation>(Organisation.class, new String[] { Organisation.RECORD_TYPE_DEPARTMENT,
-                Organisation.RECORD_TYPE_HOSPITAL });
+        SKSParser<Organisation> parser = new SKSParser<Organisation>(Organisation.class, new String[] {
+                Organisation.RECORD_TYPE_DEPARTMENT, Organisation.RECORD_TYPE_HOSPITAL });
+        parser.setDelta(shakDelta);
+        parser.setExecutor(parseExecutor());
+        return parser;
     }
 
     @Bean
     public SKSParser<SKSLine> sksParser() {
-        return new SKSParser<SKSLine>(SKSLine.class, new String[] { "dia", "pro", "opr", "und", "atc" });
+        SKSParser<SKSLine> parser = new SKSParser<SKSLine>(SKSLine.class, new String[] { "dia", "pro", "opr", "und",
+                "atc" });
+        parser.setDelta(sksDelta);
+        parser.setExecutor(parseExecutor());
+        return parser;
     }
 
     @Bean
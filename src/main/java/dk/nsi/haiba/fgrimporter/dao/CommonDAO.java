@@ -26,7 +26,19 @@
  */
 package dk.nsi.haiba.fgrimporter.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
 
 public class CommonDAO {
 	
@@ -36,6 +48,9 @@ public class CommonDAO {
 	@Value("${jdbc.dialect}")
 	private String dialect;
 
+	@Value("${jdbc.batchsize:1000}")
+	private int batchSize = 1000;
+
 	public String getDialect() {
 		return dialect;
 	}
@@ -43,6 +58,67 @@ public class CommonDAO {
 	public void setDialect(String dialect) {
 		this.dialect = dialect;
 	}
-	
 
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/*
+	 * Logs the write rate of a batch at debug, used for sizing jdbc.batchsize against the database at hand. The rate
+	 * of a whole import is logged once by the importer
+	 */
+	protected void logThroughput(Log log, String table, int rows, long startMillis) {
+		long millis = Math.max(1, System.currentTimeMillis() - startMillis);
+		log.debug("wrote " + rows + " rows to " + table + " in " + (millis / 1000d) + " seconds, "
+				+ (rows * 1000L / millis) + " rows/s, batchsize " + batchSize);
+	}
+
+	/*
+	 * The rows of a batch update that matched no row. Drivers answering Statement.SUCCESS_NO_INFO are taken to have
+	 * matched
+	 */
+	protected static <T> List<T> unmatched(List<T> rows, int[][] counts) {
+		List<T> unmatched = new ArrayList<T>();
+		int i = 0;
+		for (int[] batch : counts) {
+			for (int count : batch) {
+				if (count == 0) {
+					unmatched.add(rows.get(i));
+				}
+				i++;
+			}
+		}
+		return unmatched;
+	}
+
+	/*
+	 * Hands the rows of the query to the handler as they are read. The MySQL driver reads the whole result into memory
+	 * unless the fetch size is Integer.MIN_VALUE, other drivers fetch batchSize rows at a time. No other statement can
+	 * run on the connection until the rows are read
+	 */
+	protected void stream(JdbcTemplate jdbc, final String sql, RowCallbackHandler handler) {
+		jdbc.query(new PreparedStatementCreator() {
+			@Override
+			public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+				PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY);
+				ps.setFetchSize(MYSQL.equals(dialect) ? Integer.MIN_VALUE : batchSize);
+				return ps;
+			}
+		}, handler);
+	}
+
+	protected static int sum(int[][] counts) {
+		int sum = 0;
+		for (int[] batch : counts) {
+			for (int count : batch) {
+				sum += Math.max(0, count);
+			}
+		}
+		return sum;
+	}
 }
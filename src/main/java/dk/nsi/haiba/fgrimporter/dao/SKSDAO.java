@@ -26,10 +26,61 @@
  */
 package dk.nsi.haiba.fgrimporter.dao;
 
+import java.util.Collection;
+import java.util.Date;
+
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
 import dk.nsi.haiba.fgrimporter.model.SKSLine;
 
 public interface SKSDAO<T extends SKSLine> {
     public void clearTable();
 
     public void saveEntity(T t);
+
+    /**
+     * Inserts the entities with JDBC batches of jdbc.batchsize rows, using one prepared statement. All rows get the
+     * given created timestamp.
+     */
+    public void saveEntities(Collection<T> entities, Date created);
+
+    /**
+     * As {@link #saveEntities(Collection, Date)}, reading the rows directly from the columns.
+     */
+    public void saveColumns(SKSColumns columns, Date created);
+
+    /**
+     * As {@link #saveColumns(SKSColumns, Date)}, for the rows from <code>from</code> up to <code>to</code>.
+     */
+    public void saveColumns(SKSColumns columns, int from, int to, Date created);
+
+    /**
+     * Applies the records of a delta file to the live table by their operation code. Records with
+     * {@link SKSLine#OPERATION_DELETE} are deleted, the others update the row with the same code, type and valid from,
+     * or are inserted with the given created timestamp if there is none.
+     */
+    public void applyDelta(Collection<T> entities, Date created);
+
+    /**
+     * Makes the live table hold the entities, by joining them with the current rows on code, type and valid from as
+     * the rows are read, and only deleting, updating and inserting the rows that differ. Inserted rows get the given
+     * created timestamp. See {@link TableDiff}.
+     *
+     * @return the changes made
+     */
+    public TableDiff<T> sync(Collection<T> entities, Date created);
+
+    /**
+     * Creates an empty staging copy of the table. Saves go to the copy until it is swapped in or discarded.
+     */
+    public void beginShadowLoad();
+
+    /**
+     * Atomically replaces the live table with the loaded staging copy.
+     */
+    public void swapShadowTable();
+
+    /**
+     * Drops the staging copy, saves go to the live table again.
+     */
+    public void discardShadowLoad();
 }
@@ -37,4 +37,27 @@ public interface SORDAO {
     public void saveSygehuseAfdelinger(Collection<SygehusAfdeling> entities);
 
     public void clear();
+
+    /**
+     * Makes the live Class_SOR hold the SOR numbers and SHAK codes of the entities, by joining them with the current
+     * rows as they are read and only deleting and inserting the rows that differ. See {@link TableDiff}.
+     *
+     * @return the changes made
+     */
+    public TableDiff<?> sync(Collection<Sygehus> sygehuse, Collection<SygehusAfdeling> afdelinger);
+
+    /**
+     * Creates an empty staging copy of Class_SOR. Saves go to the copy until it is swapped in or discarded.
+     */
+    public void beginShadowLoad();
+
+    /**
+     * Atomically replaces the live Class_SOR with the loaded staging copy.
+     */
+    public void swapShadowTable();
+
+    /**
+     * Drops the staging copy, saves go to the live table again.
+     */
+    public void discardShadowLoad();
 }
@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Joins the rows of a table with the freshly parsed rows on their natural key, and finds the rows to insert, update
+ * and delete to make the table hold the parsed rows. Rows are matched by keyOrder, a matched row is updated when
+ * valueOrder tells them apart.
+ * <p/>
+ * The parsed rows are sorted by key and held, the rows of the table are handed to {@link #current(Object)} one by
+ * one, in any order, as they are read, and are not kept. So the order of the database collation is not relied on.
+ * <p/>
+ * When the parsed rows hold a key more than once the last one wins. When the table holds a key more than once, the key
+ * is deleted and the parsed row inserted again, so deletes are to be applied before inserts.
+ */
+public class TableDiff<T> {
+    private final Comparator<? super T> keyOrder;
+    private final Comparator<? super T> valueOrder;
+
+    private final List<T> inserts = new ArrayList<T>();
+    private final List<T> updates = new ArrayList<T>();
+    private final List<T> deletes = new ArrayList<T>();
+    private int deleted;
+    private int duplicates;
+
+    // the last parsed row of each key, in key order, and the table rows matched by each
+    private List<T> parsed;
+    private int[] matched;
+    private boolean[] changed;
+    private TreeSet<T> unparsed;
+    private int rows;
+
+    public TableDiff(Comparator<? super T> keyOrder, Comparator<? super T> valueOrder) {
+        this.keyOrder = keyOrder;
+        this.valueOrder = valueOrder;
+    }
+
+    /**
+     * Joins the rows held in a list with the parsed rows, see {@link #parsed(Collection)}.
+     */
+    public TableDiff<T> diff(List<T> current, List<T> parsed) {
+        parsed(parsed);
+        for (T row : current) {
+            current(row);
+        }
+        return finish();
+    }
+
+    /**
+     * Sorts the parsed rows by key and keeps the last one of each key. The rows of the table are then handed to
+     * {@link #current(Object)}, and the changes are found by {@link #finish()}.
+     */
+    public TableDiff<T> parsed(Collection<? extends T> rows) {
+        List<T> sorted = new ArrayList<T>(rows);
+        // the sort is stable, so the last row of a key is the last of its run
+        Collections.sort(sorted, keyOrder);
+        parsed = new ArrayList<T>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i + 1 < sorted.size() && keyOrder.compare(sorted.get(i), sorted.get(i + 1)) == 0) {
+                duplicates++;
+            } else {
+                parsed.add(sorted.get(i));
+            }
+        }
+        matched = new int[parsed.size()];
+        changed = new boolean[parsed.size()];
+        unparsed = new TreeSet<T>(keyOrder);
+        return this;
+    }
+
+    /**
+     * Matches a row of the table with the parsed row of its key. Rows with keys that are not parsed are deleted.
+     */
+    public void current(T row) {
+        rows++;
+        int i = Collections.binarySearch(parsed, row, keyOrder);
+        if (i < 0) {
+            if (unparsed.add(row)) {
+                deletes.add(row);
+            }
+            deleted++;
+        } else if (matched[i]++ == 0) {
+            changed[i] = valueOrder.compare(row, parsed.get(i)) != 0;
+        }
+    }
+
+    public TableDiff<T> finish() {
+        for (int i = 0; i < parsed.size(); i++) {
+            if (matched[i] == 0) {
+                inserts.add(parsed.get(i));
+            } else if (matched[i] > 1) {
+                deletes.add(parsed.get(i));
+                deleted += matched[i];
+                inserts.add(parsed.get(i));
+            } else if (changed[i]) {
+                updates.add(parsed.get(i));
+            }
+        }
+        parsed = null;
+        matched = null;
+        changed = null;
+        unparsed = null;
+        return this;
+    }
+
+    public List<T> getInserts() {
+        return inserts;
+    }
+
+    public List<T> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return a row of each key to delete, all rows of the key are deleted
+     */
+    public List<T> getDeletes() {
+        return deletes;
+    }
+
+    /**
+     * @return the number of table rows deleted
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the number of parsed rows dropped because a later row had the same key
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of table rows handed to {@link #current(Object)}
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public String toString() {
+        return inserts.size() + " inserted, " + updates.size() + " updated, " + deleted + " deleted";
+    }
+}
@@ -0,0 +1,357 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.dao.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
+import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
+import dk.nsi.haiba.fgrimporter.dao.TableDiff;
+import dk.nsi.haiba.fgrimporter.exception.DAOException;
+import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+
+/**
+ * The writes of a classification table of SKS lines, shared by the DAOs of the tables, which only bind the values of
+ * their columns.
+ * <p/>
+ * The first six columns of a table are the code, text and type of the record, the created timestamp, valid from and
+ * valid to, and the natural key of a row is its code, type and valid from. Values are bound as strings, dates as
+ * timestamps and nulls as VARCHAR.
+ */
+public abstract class AbstractSKSDAOImpl<T extends SKSLine> extends CommonDAO implements SKSDAO<T> {
+    private static final int BULK_CHUNK_ROWS = 100000;
+
+    private final Log log = new Log(Logger.getLogger(getClass()));
+
+    @Autowired
+    @Qualifier("haibaJdbcTemplate")
+    JdbcTemplate jdbc;
+
+    @Value("${jdbc.haibatableprefix:}")
+    String tableprefix;
+
+    @Autowired
+    ShadowTableManager shadowTables;
+
+    @Autowired
+    BulkLoader bulkLoader;
+
+    private final String table;
+    private final String primaryKeyColumn;
+    private final String[] columns;
+    private final String keyCondition;
+
+    private volatile String targetTable;
+
+    protected AbstractSKSDAOImpl(String table, String primaryKeyColumn, String... columns) {
+        this.table = table;
+        this.primaryKeyColumn = primaryKeyColumn;
+        this.columns = columns;
+        this.keyCondition = " WHERE " + columns[0] + " = ? AND " + columns[2] + " = ? AND " + columns[4] + " = ?";
+    }
+
+    /**
+     * @return the values of the columns of the record, in column order
+     */
+    protected abstract Object[] values(T record, Date created);
+
+    /**
+     * @return the values of the columns of a row of the columns, in column order
+     */
+    protected abstract Object[] values(SKSColumns columns, int row, Date created);
+
+    /**
+     * @return the value of the type column of the record
+     */
+    protected abstract String typeValue(T record);
+
+    /**
+     * @return a record of a row read from the table, with the values of the first three columns and its validity
+     */
+    protected abstract T record(String code, String text, String type, Date validFrom, Date validTo);
+
+    @Override
+    public void saveEntity(T t) throws DAOException {
+        saveEntities(Collections.singletonList(t), new Date());
+        log.debug("** Inserted " + t.getClass().getSimpleName());
+    }
+
+    @Override
+    public void saveEntities(Collection<T> entities, final Date created) throws DAOException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (bulkLoader.isEnabled()) {
+            try {
+                List<Object[]> rows = new ArrayList<Object[]>(entities.size());
+                for (T t : entities) {
+                    rows.add(values(t, created));
+                }
+                bulkLoader.load(targetTable(), columns, rows);
+                return;
+            } catch (DAOException e) {
+                log.warn("bulk load into " + table + " failed, falling back to batched inserts: " + e.getMessage());
+            }
+        }
+        try {
+            long start = System.currentTimeMillis();
+            jdbc.batchUpdate(insertSql(), entities, getBatchSize(), new ParameterizedPreparedStatementSetter<T>() {
+                @Override
+                public void setValues(PreparedStatement ps, T t) throws SQLException {
+                    bind(ps, values(t, created));
+                }
+            });
+            logThroughput(log, table, entities.size(), start);
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveColumns(SKSColumns columns, Date created) throws DAOException {
+        saveColumns(columns, 0, columns.size(), created);
+    }
+
+    @Override
+    public void saveColumns(final SKSColumns columns, int from, int to, final Date created) throws DAOException {
+        if (from >= to) {
+            return;
+        }
+        if (bulkLoader.isEnabled()) {
+            int loaded = from;
+            try {
+                // staged in chunks, so the rows are not all turned into objects at once
+                while (loaded < to) {
+                    int end = Math.min(to, loaded + BULK_CHUNK_ROWS);
+                    List<Object[]> rows = new ArrayList<Object[]>(end - loaded);
+                    for (int row = loaded; row < end; row++) {
+                        rows.add(values(columns, row, created));
+                    }
+                    bulkLoader.load(targetTable(), this.columns, rows);
+                    loaded = end;
+                }
+                return;
+            } catch (DAOException e) {
+                if (loaded > from) {
+                    throw e;
+                }
+                log.warn("bulk load into " + table + " failed, falling back to batched inserts: " + e.getMessage());
+            }
+        }
+        try {
+            long start = System.currentTimeMillis();
+            for (int batch = from; batch < to; batch += getBatchSize()) {
+                final int offset = batch;
+                final int rows = Math.min(getBatchSize(), to - batch);
+                jdbc.batchUpdate(insertSql(), new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        bind(ps, values(columns, offset + i, created));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows;
+                    }
+                });
+            }
+            logThroughput(log, table, to - from, start);
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void applyDelta(Collection<T> entities, Date created) throws DAOException {
+        List<T> deletes = new ArrayList<T>();
+        List<T> upserts = new ArrayList<T>();
+        for (T t : entities) {
+            if (t.getOperation() == SKSLine.OPERATION_DELETE) {
+                deletes.add(t);
+            } else {
+                upserts.add(t);
+            }
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int deleted = delete(deletes);
+            List<T> inserts = unmatched(upserts, update(upserts));
+            saveEntities(inserts, created);
+            log.info("delta of " + entities.size() + " records applied to " + table + ": " + deleted + " deleted, "
+                    + (upserts.size() - inserts.size()) + " updated, " + inserts.size() + " inserted in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public TableDiff<T> sync(Collection<T> entities, Date created) throws DAOException {
+        try {
+            long start = System.currentTimeMillis();
+            final TableDiff<T> diff = new TableDiff<T>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).parsed(entities);
+            // the rows are matched as they are read, the table is not held in memory
+            stream(jdbc, "SELECT " + columns[0] + ", " + columns[1] + ", " + columns[2] + ", ValidFrom, ValidTo FROM "
+                    + liveTable(), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    diff.current(record(rs.getString(1), rs.getString(2), rs.getString(3),
+                            new Date(rs.getTimestamp(4).getTime()), new Date(rs.getTimestamp(5).getTime())));
+                }
+            });
+            diff.finish();
+            delete(diff.getDeletes());
+            update(diff.getUpdates());
+            saveEntities(diff.getInserts(), created);
+            log.info(entities.size() + " records synchronized with " + diff.getRows() + " rows of " + table + ": "
+                    + diff + " in " + (System.currentTimeMillis() - start) + " ms");
+            return diff;
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Deletes the rows with the code, type and valid from of the records from the live table
+     */
+    private int delete(List<T> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        return sum(jdbc.batchUpdate("DELETE FROM " + liveTable() + keyCondition, records, getBatchSize(),
+                new ParameterizedPreparedStatementSetter<T>() {
+                    @Override
+                    public void setValues(PreparedStatement ps, T t) throws SQLException {
+                        ps.setString(1, t.getCode());
+                        ps.setString(2, typeValue(t));
+                        ps.setTimestamp(3, new Timestamp(t.getValidFrom().getTime()));
+                    }
+                }));
+    }
+
+    /*
+     * Updates the rows with the code, type and valid from of the records in the live table
+     */
+    private int[][] update(List<T> records) {
+        if (records.isEmpty()) {
+            return new int[0][];
+        }
+        return jdbc.batchUpdate("UPDATE " + liveTable() + " SET " + columns[1] + " = ?, ValidTo = ?" + keyCondition,
+                records, getBatchSize(), new ParameterizedPreparedStatementSetter<T>() {
+                    @Override
+                    public void setValues(PreparedStatement ps, T t) throws SQLException {
+                        ps.setString(1, t.getText());
+                        ps.setTimestamp(2, new Timestamp(t.getValidTo().getTime()));
+                        ps.setString(3, t.getCode());
+                        ps.setString(4, typeValue(t));
+                        ps.setTimestamp(5, new Timestamp(t.getValidFrom().getTime()));
+                    }
+                });
+    }
+
+    private static void bind(PreparedStatement ps, Object[] values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                ps.setNull(i + 1, Types.VARCHAR);
+            } else if (value instanceof Date) {
+                ps.setTimestamp(i + 1, new Timestamp(((Date) value).getTime()));
+            } else {
+                ps.setString(i + 1, (String) value);
+            }
+        }
+    }
+
+    @Override
+    public void clearTable() throws DAOException {
+        try {
+            jdbc.update("DELETE FROM " + liveTable());
+        } catch (Exception e) {
+            throw new DAOException("", e);
+        }
+    }
+
+    @Override
+    public void beginShadowLoad() {
+        targetTable = shadowTables.createShadow(liveTable(), primaryKeyColumn);
+    }
+
+    @Override
+    public void swapShadowTable() {
+        try {
+            shadowTables.swap(liveTable());
+        } finally {
+            targetTable = null;
+        }
+    }
+
+    @Override
+    public void discardShadowLoad() {
+        shadowTables.discardShadow(liveTable());
+        targetTable = null;
+    }
+
+    private String insertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(targetTable()).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+            parameters.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(") VALUES (").append(parameters).append(")").toString();
+    }
+
+    private String liveTable() {
+        return tableprefix + table;
+    }
+
+    private String targetTable() {
+        String target = targetTable;
+        return target != null ? target : liveTable();
+    }
+}
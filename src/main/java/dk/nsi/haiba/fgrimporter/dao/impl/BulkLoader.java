@@ -0,0 +1,219 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.dao.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
+import dk.nsi.haiba.fgrimporter.exception.DAOException;
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * Loads rows through the native bulk mechanism of the database instead of one INSERT per row.
+ * <p/>
+ * The rows are staged to a tab separated file in <code>jdbc.bulkload.stagingdir</code>, which is then loaded with
+ * <code>LOAD DATA LOCAL INFILE</code> on MySQL and <code>INSERT ... SELECT FROM OPENROWSET(BULK ...)</code> on MSSQL.
+ * MSSQL reads the file on the database server, so the staging directory must be shared with the server, and
+ * <code>jdbc.bulkload.serverdir</code> set to the path of the same directory as seen from the server. The OPENROWSET
+ * form is used because it can load a subset of the table columns (leaving out the identity column) through an XML
+ * format file, which BULK INSERT cannot.
+ */
+public class BulkLoader extends CommonDAO {
+    private static Log log = new Log(Logger.getLogger(BulkLoader.class));
+
+    private static final String MYSQL_NULL = "\\N";
+    private static final String MYSQL_CHARSET = "UTF-8";
+    private static final String MSSQL_CHARSET = "windows-1252";
+    private static final String MSSQL_CODEPAGE = "1252";
+
+    @Autowired
+    @Qualifier("haibaJdbcTemplate")
+    JdbcTemplate jdbc;
+
+    @Value("${jdbc.bulkload:false}")
+    boolean enabled;
+
+    @Value("${jdbc.bulkload.stagingdir:}")
+    String stagingDir;
+
+    @Value("${jdbc.bulkload.serverdir:}")
+    String serverDir;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Loads the rows into the table. Each row holds one value per column, values are Strings, Numbers or Dates.
+     * Dates are written with second precision.
+     *
+     * @throws DAOException
+     *             if staging or loading fails. Nothing is loaded in that case, so the caller can fall back to
+     *             ordinary inserts
+     */
+    public void load(String table, String[] columns, List<Object[]> rows) throws DAOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        File dir = stagingDir.length() > 0 ? new File(stagingDir) : FileUtils.getTempDirectory();
+        File data = null;
+        File format = null;
+        try {
+            long start = System.currentTimeMillis();
+            data = File.createTempFile(table + "-", ".tsv", dir);
+            if (MYSQL.equals(getDialect())) {
+                stage(data, rows, MYSQL_CHARSET, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"), true);
+                String path = data.getAbsolutePath().replace("\\", "\\\\").replace("'", "''");
+                jdbc.execute("LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + table
+                        + " CHARACTER SET utf8 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' ("
+                        + join(columns) + ")");
+            } else {
+                // MSSQL, yyyyMMdd is the only date format read independently of the session language
+                stage(data, rows, MSSQL_CHARSET, new SimpleDateFormat("yyyyMMdd HH:mm:ss"), false);
+                format = new File(dir, data.getName() + ".fmt.xml");
+                FileUtils.writeStringToFile(format, formatFile(columns), "UTF-8");
+                jdbc.execute("INSERT INTO " + table + " WITH (TABLOCK) (" + join(columns) + ") SELECT "
+                        + join(columns) + " FROM OPENROWSET(BULK '" + serverPath(data).replace("'", "''")
+                        + "', FORMATFILE = '" + serverPath(format).replace("'", "''") + "', CODEPAGE = '"
+                        + MSSQL_CODEPAGE + "') AS staged");
+            }
+            logThroughput(log, table + " (bulk)", rows.size(), start);
+        } catch (IOException e) {
+            throw new DAOException("unable to stage rows for " + table, e);
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            FileUtils.deleteQuietly(data);
+            FileUtils.deleteQuietly(format);
+        }
+    }
+
+    /*
+     * MySQL reads \N as null and needs backslashes escaped, MSSQL reads an empty field as null
+     */
+    private void stage(File file, List<Object[]> rows, String charset, SimpleDateFormat dateFormat, boolean mysql)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset), 1 << 16);
+        try {
+            StringBuilder sb = new StringBuilder(256);
+            for (Object[] row : rows) {
+                sb.setLength(0);
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        sb.append('\t');
+                    }
+                    Object value = row[i];
+                    if (value == null) {
+                        sb.append(mysql ? MYSQL_NULL : "");
+                    } else if (value instanceof Date) {
+                        sb.append(dateFormat.format((Date) value));
+                    } else {
+                        appendEscaped(sb, value.toString(), mysql);
+                    }
+                }
+                sb.append('\n');
+                writer.write(sb.toString());
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value, boolean backslashEscapes) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                // the SKS/SHAK texts never contain these, don't let a stray one break the row layout
+                sb.append(' ');
+            } else if (c == '\\' && backslashEscapes) {
+                sb.append("\\\\");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private String formatFile(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\n");
+        sb.append("<BCPFORMAT xmlns=\"http://schemas.microsoft.com/sqlserver/2004/bulkload/format\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
+        sb.append(" <RECORD>\n");
+        for (int i = 0; i < columns.length; i++) {
+            String terminator = i < columns.length - 1 ? "\\t" : "\\n";
+            sb.append("  <FIELD ID=\"" + (i + 1) + "\" xsi:type=\"CharTerm\" TERMINATOR=\"" + terminator
+                    + "\" MAX_LENGTH=\"255\"/>\n");
+        }
+        sb.append(" </RECORD>\n");
+        sb.append(" <ROW>\n");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append("  <COLUMN SOURCE=\"" + (i + 1) + "\" NAME=\"" + columns[i] + "\" xsi:type=\"SQLVARYCHAR\"/>\n");
+        }
+        sb.append(" </ROW>\n");
+        sb.append("</BCPFORMAT>\n");
+        return sb.toString();
+    }
+
+    private String serverPath(File file) {
+        if (serverDir.length() == 0) {
+            return file.getAbsolutePath();
+        }
+        return serverDir + (serverDir.endsWith("\\") || serverDir.endsWith("/") ? "" : "\\") + file.getName();
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(column);
+        }
+        return sb.toString();
+    }
+}
@@ -26,59 +26,41 @@
  */
 package dk.nsi.haiba.fgrimporter.dao.impl;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import org.apache.log4j.Logger;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
-
-import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
-import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
-import dk.nsi.haiba.fgrimporter.exception.DAOException;
-import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
 import dk.nsi.haiba.fgrimporter.model.SKSLine;
 
-public class GenericSKSLineDAOImpl extends CommonDAO implements SKSDAO<SKSLine> {
-    private static Log log = new Log(Logger.getLogger(GenericSKSLineDAOImpl.class));
-
-    @Autowired
-    @Qualifier("haibaJdbcTemplate")
-    JdbcTemplate jdbc;
-
-    @Value("${jdbc.haibatableprefix:}")
-    String tableprefix;
+public class GenericSKSLineDAOImpl extends AbstractSKSDAOImpl<SKSLine> {
+    public GenericSKSLineDAOImpl() {
+        super("class_sks", "ID", "Code", "Text", "Type", "Created", "ValidFrom", "ValidTo");
+    }
 
     @Override
-    public void saveEntity(SKSLine sks) throws DAOException {
-        try {
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String created = formatter.format(new Date());
-
-            String sql = "INSERT INTO " + tableprefix
-                    + "class_sks (Code, Text, Type, Created, ValidFrom, ValidTo) VALUES (?, ?, ?, '" + created
-                    + "', ?, ?)";
-
-            Object[] args = new Object[] { sks.getCode(), sks.getText(), sks.getType(), sks.getValidFrom(),
-                    sks.getValidTo() };
+    protected Object[] values(SKSLine sks, Date created) {
+        return new Object[] { sks.getCode(), sks.getText(), sks.getType(), created, sks.getValidFrom(),
+                sks.getValidTo() };
+    }
 
-            jdbc.update(sql, args);
+    @Override
+    protected Object[] values(SKSColumns columns, int row, Date created) {
+        return new Object[] { columns.getCode(row), columns.getText(row), columns.getType(row), created,
+                columns.getValidFrom(row), columns.getValidTo(row) };
+    }
 
-            log.debug("** Inserted SKSLine");
-        } catch (DataAccessException e) {
-            throw new DAOException(e.getMessage(), e);
-        }
+    @Override
+    protected String typeValue(SKSLine sks) {
+        return sks.getType();
     }
 
     @Override
-    public void clearTable() throws DAOException {
-        try {
-            jdbc.update("DELETE FROM " + tableprefix + "class_sks");
-        } catch (Exception e) {
-            throw new DAOException("", e);
-        }
+    protected SKSLine record(String code, String text, String type, Date validFrom, Date validTo) {
+        SKSLine sks = new SKSLine();
+        sks.setCode(code);
+        sks.setText(text);
+        sks.setType(type);
+        sks.setValidFrom(validFrom);
+        sks.setValidTo(validTo);
+        return sks;
     }
 }
@@ -29,57 +29,43 @@ package dk.nsi.haiba.fgrimporter.dao.impl;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import org.apache.log4j.Logger;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
-
-import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
-import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
-import dk.nsi.haiba.fgrimporter.exception.DAOException;
-import dk.nsi.haiba.fgrimporter.log.Log;
 import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
 
-public class SHAKDAOImpl extends CommonDAO implements SKSDAO<Organisation> {
-    private static Log log = new Log(Logger.getLogger(SHAKDAOImpl.class));
-
-    @Autowired
-    @Qualifier("haibaJdbcTemplate")
-    JdbcTemplate jdbc;
+public class SHAKDAOImpl extends AbstractSKSDAOImpl<Organisation> {
+    public SHAKDAOImpl() {
+        super("class_shak", "OrganisationPID", "Nummer", "Navn", "Organisationstype", "CreatedDate", "ValidFrom",
+                "ValidTo", "Ejerforhold", "Institutionsart", "Regionskode");
+    }
 
-    @Value("${jdbc.haibatableprefix:}")
-    String tableprefix;
-    
     @Override
-    public void saveEntity(Organisation org) throws DAOException {
-        try {
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String created = formatter.format(new Date());
-
-            String sql = "INSERT INTO "
-                    + tableprefix
-                    + "class_shak (Nummer, Navn, Organisationstype, CreatedDate, ValidFrom, ValidTo) VALUES (?, ?, ?, '"
-                    + created + "', ?, ?)";
+    protected Object[] values(Organisation org, Date created) {
+        return new Object[] { org.getCode(), org.getText(), org.getOrganisationstype(), created, org.getValidFrom(),
+                org.getValidTo(), org.getEjerforhold(), org.getInstitutionsart(), org.getRegionskode() };
+    }
 
-            Object[] args = new Object[] { org.getCode(), org.getText(), org.getOrganisationstype(),
-                    org.getValidFrom(), org.getValidTo() };
+    @Override
+    protected Object[] values(SKSColumns columns, int row, Date created) {
+        // columns are not enriched with regions
+        return new Object[] { columns.getCode(row), columns.getText(row),
+                Organisation.organisationstype(columns.getType(row)), created, columns.getValidFrom(row),
+                columns.getValidTo(row), null, null, null };
+    }
 
-            jdbc.update(sql, args);
-            log.debug("** Inserted Organisation");
-        } catch (DataAccessException e) {
-            throw new DAOException(e.getMessage(), e);
-        }
+    @Override
+    protected String typeValue(Organisation org) {
+        return org.getOrganisationstype();
     }
 
     @Override
-    public void clearTable() throws DAOException {
-        try {
-            jdbc.update("DELETE FROM " + tableprefix + "class_shak");
-        } catch (Exception e) {
-            throw new DAOException("", e);
-        }
+    protected Organisation record(String code, String text, String organisationstype, Date validFrom, Date validTo) {
+        Organisation org = new Organisation();
+        org.setCode(code);
+        org.setText(text);
+        org.setType(Organisation.recordType(organisationstype));
+        org.setValidFrom(validFrom);
+        org.setValidTo(validTo);
+        return org;
     }
 
     public static void main(String[] args) {
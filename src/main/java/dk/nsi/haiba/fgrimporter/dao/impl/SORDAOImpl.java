@@ -26,7 +26,13 @@
  */
 package dk.nsi.haiba.fgrimporter.dao.impl;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,16 +40,47 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
+import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
 import dk.nsi.haiba.fgrimporter.dao.SORDAO;
+import dk.nsi.haiba.fgrimporter.dao.TableDiff;
 import dk.nsi.haiba.fgrimporter.exception.DAOException;
 import dk.nsi.haiba.fgrimporter.log.Log;
 import dk.nsi.haiba.fgrimporter.model.Sygehus;
 import dk.nsi.haiba.fgrimporter.model.SygehusAfdeling;
 
-public class SORDAOImpl implements SORDAO {
+public class SORDAOImpl extends CommonDAO implements SORDAO {
     private static Log log = new Log(Logger.getLogger(SORDAOImpl.class));
 
+    private static final ParameterizedPreparedStatementSetter<Object[]> ROW_SETTER =
+            new ParameterizedPreparedStatementSetter<Object[]>() {
+        @Override
+        public void setValues(PreparedStatement ps, Object[] row) throws SQLException {
+            ps.setLong(1, (Long) row[0]);
+            ps.setString(2, (String) row[1]);
+        }
+    };
+
+    /*
+     * A row is its key, SOR number and SHAK code
+     */
+    private static final Comparator<Object[]> ROW_ORDER = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] a, Object[] b) {
+            int c = ((Long) a[0]).compareTo((Long) b[0]);
+            return c != 0 ? c : ((String) a[1]).compareTo((String) b[1]);
+        }
+    };
+
+    private static final Comparator<Object[]> SAME_VALUES = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] a, Object[] b) {
+            return 0;
+        }
+    };
+
     @Autowired
     @Qualifier("haibaJdbcTemplate")
     JdbcTemplate jdbc;
@@ -51,6 +88,11 @@ public class SORDAOImpl implements SORDAO {
     @Value("${jdbc.haibatableprefix:}")
     String tableprefix;
 
+    @Autowired
+    ShadowTableManager shadowTables;
+
+    private volatile String targetTable;
+
     @Override
     public void clear() {
         jdbc.update("DELETE FROM " + tableprefix + "Class_SOR");
@@ -59,38 +101,110 @@ public class SORDAOImpl implements SORDAO {
     @Override
     public void saveSygehuseAfdelinger(Collection<SygehusAfdeling> entities) {
         log.debug("storing " + entities.size() + " afdelinger");
-        for (SygehusAfdeling sa : entities) {
-            Long Sor_ID = sa.getSorNummer();
-            String SHAK = sa.getNummer();
-            if (Sor_ID != null && SHAK != null) {
-                try {
-                    String sql = "INSERT INTO " + tableprefix + "Class_SOR (Sor_ID, SHAK) VALUES (?, ?)";
-                    jdbc.update(sql, Sor_ID, SHAK);
-                } catch (DataAccessException e) {
-                    throw new DAOException(e.getMessage(), e);
-                }
-            } else {
-                log.info("no SHAK or SOR_Id in " + sa);
-            }
-        }
+        insert(afdelingRows(entities));
     }
 
     @Override
     public void saveSygehuse(Collection<Sygehus> entities) {
         log.debug("storing " + entities.size() + " sygehuse");
+        insert(sygehusRows(entities));
+    }
+
+    @Override
+    public TableDiff<Object[]> sync(Collection<Sygehus> sygehuse, Collection<SygehusAfdeling> afdelinger) {
+        List<Object[]> rows = sygehusRows(sygehuse);
+        rows.addAll(afdelingRows(afdelinger));
+        try {
+            long start = System.currentTimeMillis();
+            final TableDiff<Object[]> diff = new TableDiff<Object[]>(ROW_ORDER, SAME_VALUES).parsed(rows);
+            stream(jdbc, "SELECT SOR_Id, SHAK FROM " + liveTable(), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    diff.current(new Object[] { rs.getLong(1), rs.getString(2) });
+                }
+            });
+            diff.finish();
+            if (!diff.getDeletes().isEmpty()) {
+                jdbc.batchUpdate("DELETE FROM " + liveTable() + " WHERE SOR_Id = ? AND SHAK = ?", diff.getDeletes(),
+                        getBatchSize(), ROW_SETTER);
+            }
+            insert(diff.getInserts());
+            log.info(rows.size() + " rows synchronized with " + diff.getRows() + " rows of Class_SOR: " + diff
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+            return diff;
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    private List<Object[]> sygehusRows(Collection<Sygehus> entities) {
+        List<Object[]> rows = new ArrayList<Object[]>(entities.size());
         for (Sygehus s : entities) {
             Long Sor_ID = s.getSorNummer();
             String SHAK = s.getNummer();
             if (Sor_ID != null && SHAK != null) {
-                try {
-                    String sql = "INSERT INTO " + tableprefix + "Class_SOR (Sor_ID, SHAK) VALUES (?, ?)";
-                    jdbc.update(sql, Sor_ID, SHAK);
-                } catch (DataAccessException e) {
-                    throw new DAOException(e.getMessage(), e);
-                }
+                rows.add(new Object[] { Sor_ID, SHAK });
             } else {
                 log.info("no SHAK or SOR_Id in " + s);
             }
         }
+        return rows;
+    }
+
+    private List<Object[]> afdelingRows(Collection<SygehusAfdeling> entities) {
+        List<Object[]> rows = new ArrayList<Object[]>(entities.size());
+        for (SygehusAfdeling sa : entities) {
+            Long Sor_ID = sa.getSorNummer();
+            String SHAK = sa.getNummer();
+            if (Sor_ID != null && SHAK != null) {
+                rows.add(new Object[] { Sor_ID, SHAK });
+            } else {
+                log.info("no SHAK or SOR_Id in " + sa);
+            }
+        }
+        return rows;
+    }
+
+    private void insert(List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + targetTable() + " (Sor_ID, SHAK) VALUES (?, ?)";
+        try {
+            long start = System.currentTimeMillis();
+            jdbc.batchUpdate(sql, rows, getBatchSize(), ROW_SETTER);
+            logThroughput(log, "Class_SOR", rows.size(), start);
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void beginShadowLoad() {
+        targetTable = shadowTables.createShadow(liveTable(), "Id");
+    }
+
+    @Override
+    public void swapShadowTable() {
+        try {
+            shadowTables.swap(liveTable());
+        } finally {
+            targetTable = null;
+        }
+    }
+
+    @Override
+    public void discardShadowLoad() {
+        shadowTables.discardShadow(liveTable());
+        targetTable = null;
+    }
+
+    private String liveTable() {
+        return tableprefix + "Class_SOR";
+    }
+
+    private String targetTable() {
+        String target = targetTable;
+        return target != null ? target : liveTable();
     }
 }
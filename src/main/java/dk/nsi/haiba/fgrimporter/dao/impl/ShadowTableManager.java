@@ -0,0 +1,154 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.dao.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
+import dk.nsi.haiba.fgrimporter.exception.DAOException;
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * Loads a table through a staging copy, so readers never see it empty or half filled.
+ * <p/>
+ * {@link #createShadow(String, String)} creates an empty copy named <code>&lt;table&gt;_shadow</code> which is loaded
+ * instead of the live table. {@link #swap(String)} then renames the live table to <code>&lt;table&gt;_old</code> and
+ * the shadow to the live name in one atomic operation (RENAME TABLE on MySQL, sp_rename in a transaction on MSSQL),
+ * and the old generation is dropped on a background thread.
+ */
+public class ShadowTableManager extends CommonDAO implements DisposableBean {
+    private static Log log = new Log(Logger.getLogger(ShadowTableManager.class));
+
+    private static final String SHADOW_SUFFIX = "_shadow";
+    private static final String OLD_SUFFIX = "_old";
+
+    @Autowired
+    @Qualifier("haibaJdbcTemplate")
+    JdbcTemplate jdbc;
+
+    private ExecutorService dropper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "shadowtable-drop");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Creates an empty copy of the table with the same columns. MSSQL does not copy keys with SELECT INTO, so the
+     * primary key is added again on the given column.
+     *
+     * @return the name of the shadow table
+     */
+    public String createShadow(String table, String primaryKeyColumn) throws DAOException {
+        String shadow = table + SHADOW_SUFFIX;
+        try {
+            dropIfExists(shadow);
+            if (MYSQL.equals(getDialect())) {
+                jdbc.execute("CREATE TABLE " + shadow + " LIKE " + table);
+            } else {
+                jdbc.execute("SELECT * INTO " + shadow + " FROM " + table + " WHERE 1 = 0");
+                jdbc.execute("ALTER TABLE " + shadow + " ADD PRIMARY KEY (" + primaryKeyColumn + ")");
+            }
+            log.debug("created " + shadow);
+            return shadow;
+        } catch (DataAccessException e) {
+            throw new DAOException("unable to create shadow table for " + table, e);
+        }
+    }
+
+    /**
+     * Switches the loaded shadow table in as the live table, and drops the previous generation in the background.
+     */
+    public void swap(String table) throws DAOException {
+        final String shadow = table + SHADOW_SUFFIX;
+        final String old = table + OLD_SUFFIX;
+        try {
+            // normally dropped in the background after the previous swap, but that may not have finished
+            dropIfExists(old);
+            if (MYSQL.equals(getDialect())) {
+                jdbc.execute("RENAME TABLE " + table + " TO " + old + ", " + shadow + " TO " + table);
+            } else {
+                // sp_rename takes the new name without schema
+                jdbc.execute("SET XACT_ABORT ON; BEGIN TRANSACTION; EXEC sp_rename '" + table + "', '"
+                        + unqualified(old) + "'; EXEC sp_rename '" + shadow + "', '" + unqualified(table)
+                        + "'; COMMIT TRANSACTION");
+            }
+            log.debug("swapped " + shadow + " in as " + table);
+        } catch (DataAccessException e) {
+            throw new DAOException("unable to swap shadow table in for " + table, e);
+        }
+        dropper.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dropIfExists(old);
+                } catch (DataAccessException e) {
+                    log.warn("unable to drop " + old + ", it is dropped before the next swap: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the shadow table after a failed load, the live table is untouched.
+     */
+    public void discardShadow(String table) {
+        try {
+            dropIfExists(table + SHADOW_SUFFIX);
+        } catch (DataAccessException e) {
+            log.warn("unable to drop " + table + SHADOW_SUFFIX + ": " + e.getMessage());
+        }
+    }
+
+    private void dropIfExists(String table) {
+        if (MYSQL.equals(getDialect())) {
+            jdbc.execute("DROP TABLE IF EXISTS " + table);
+        } else {
+            jdbc.execute("IF OBJECT_ID('" + table + "', 'U') IS NOT NULL DROP TABLE " + table);
+        }
+    }
+
+    private static String unqualified(String table) {
+        return table.substring(table.lastIndexOf('.') + 1);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        dropper.shutdown();
+    }
+}
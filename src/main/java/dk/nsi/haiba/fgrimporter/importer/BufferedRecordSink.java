@@ -0,0 +1,184 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.parser.ParserException;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+
+/**
+ * Hands records over to a target sink running on its own writer thread, through a bounded queue.
+ * <p/>
+ * The producer blocks when the queue is full, so at most <code>capacity</code> records are held in memory no matter
+ * how big the input is, and parsing runs concurrently with whatever the target does (typically database writes).
+ * Failures on the writer thread are rethrown to the producer on the next call to {@link #add(Object)} or
+ * {@link #close()}.
+ * <p/>
+ * The time the producer waits for room in the queue, and the time the writer waits for records and spends in the
+ * target, are added to the {@link StageMetrics} of the two stages.
+ */
+public class BufferedRecordSink<T> implements RecordSink<T> {
+    private static Log log = new Log(Logger.getLogger(BufferedRecordSink.class));
+
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<Object> queue;
+    private final RecordSink<T> target;
+    private final Thread writer;
+    private final StageMetrics producer;
+    private final StageMetrics consumer;
+    private volatile RuntimeException failure;
+    private volatile boolean aborted;
+
+    public BufferedRecordSink(RecordSink<T> target, int capacity, String name) {
+        this(target, capacity, name, new StageMetrics("parse"), new StageMetrics("persist"));
+    }
+
+    public BufferedRecordSink(RecordSink<T> target, int capacity, String name, StageMetrics producer,
+            StageMetrics consumer) {
+        this.target = target;
+        this.producer = producer;
+        this.consumer = consumer;
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "sink-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void add(T record) {
+        enqueue(record);
+    }
+
+    /**
+     * Waits until every queued record has been handed to the target and the target has been closed.
+     */
+    @Override
+    public void close() {
+        enqueue(END);
+        join();
+        checkWriter();
+    }
+
+    /**
+     * Stops the writer thread as soon as possible, discarding queued records. The target is not closed.
+     */
+    public void abort() {
+        aborted = true;
+        queue.clear();
+        writer.interrupt();
+        join();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public StageMetrics getProducerMetrics() {
+        return producer;
+    }
+
+    public StageMetrics getWriterMetrics() {
+        return consumer;
+    }
+
+    private void enqueue(Object o) {
+        long start = System.nanoTime();
+        try {
+            while (!queue.offer(o, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                checkWriter();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParserException(e);
+        } finally {
+            producer.waitedForOutput(System.nanoTime() - start);
+        }
+        if (o != END) {
+            producer.handedOn(queue.size());
+        }
+        checkWriter();
+    }
+
+    private void join() {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParserException(e);
+        }
+    }
+
+    private void checkWriter() {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!writer.isAlive() && !queue.isEmpty()) {
+            throw new ParserException("writer thread " + writer.getName() + " is no longer running");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        try {
+            while (!aborted) {
+                long start = System.nanoTime();
+                Object o = queue.take();
+                long taken = System.nanoTime();
+                consumer.waitedForInput(taken - start);
+                if (o == END) {
+                    target.close();
+                    consumer.busy(System.nanoTime() - taken);
+                    break;
+                }
+                target.add((T) o);
+                consumer.busy(System.nanoTime() - taken);
+                consumer.handedOn(0);
+            }
+        } catch (InterruptedException e) {
+            log.debug("writer " + writer.getName() + " interrupted");
+        } catch (RuntimeException e) {
+            failure = e;
+            queue.clear();
+        } catch (Error e) {
+            failure = new ParserException(e);
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.Properties;
+
+/**
+ * Outcome of a {@link FileFetch}, with the digest of the fetched content and the HTTP validators (ETag,
+ * Last-Modified) the server sent with it.
+ */
+public class FetchResult {
+    private boolean fetched;
+    private boolean notModified;
+    private String digest;
+    private long bytes;
+    private Properties validators = new Properties();
+
+    public FetchResult(boolean fetched, String digest, long bytes) {
+        this.fetched = fetched;
+        this.digest = digest;
+        this.bytes = bytes;
+    }
+
+    public FetchResult(boolean fetched, String digest, long bytes, Properties validators) {
+        this(fetched, digest, bytes);
+        this.validators = validators;
+    }
+
+    public static FetchResult failed() {
+        return new FetchResult(false, null, 0);
+    }
+
+    public static FetchResult notModified() {
+        FetchResult result = new FetchResult(false, null, 0);
+        result.notModified = true;
+        return result;
+    }
+
+    public boolean isFetched() {
+        return fetched;
+    }
+
+    /**
+     * @return true if the server answered a conditional request with 304 Not Modified. Nothing was downloaded
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public Properties getValidators() {
+        return validators;
+    }
+
+    /**
+     * @return hex encoded SHA-1 of the fetched content, computed while downloading
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
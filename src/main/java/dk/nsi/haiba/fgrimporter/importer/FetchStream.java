@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+
+/**
+ * The body of a remote file, to be read by a parser while it is downloaded. The content is digested and counted on
+ * the way through, and copied to an archive file if one is given.
+ * <p/>
+ * The archive is written to a .part file which replaces the archive file on {@link #complete()}, so an aborted
+ * download never leaves a truncated file behind.
+ */
+public class FetchStream extends FilterInputStream {
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final MessageDigest digest;
+    private final CountingInputStream counter;
+    private final Properties validators;
+    private final File archive;
+    private final File partial;
+    private final long expectedLength;
+    private final boolean notModified;
+    private boolean completed;
+
+    FetchStream(InputStream in, long expectedLength, MessageDigest digest, Properties validators, File archive)
+            throws IOException {
+        this(new CountingInputStream(new DigestInputStream(in, digest)), expectedLength, digest, validators, archive);
+    }
+
+    private FetchStream(CountingInputStream counter, long expectedLength, MessageDigest digest,
+            Properties validators, File archive) throws IOException {
+        super(archive != null ? new TeeInputStream(counter, FileUtils.openOutputStream(partialFile(archive)), true)
+                : counter);
+        this.counter = counter;
+        this.digest = digest;
+        this.validators = validators;
+        this.archive = archive;
+        this.partial = archive != null ? partialFile(archive) : null;
+        this.expectedLength = expectedLength;
+        this.notModified = false;
+    }
+
+    private FetchStream() {
+        super(null);
+        this.counter = null;
+        this.digest = null;
+        this.validators = null;
+        this.archive = null;
+        this.partial = null;
+        this.expectedLength = -1;
+        this.notModified = true;
+    }
+
+    static FetchStream notModified() {
+        return new FetchStream();
+    }
+
+    /**
+     * @return true if the server answered a conditional request with 304 Not Modified. There is nothing to read
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Reads whatever the parser left unread, e.g. the rest of a zip file after the parsed entry, closes the stream
+     * and moves the archive file into place.
+     *
+     * @return the result of the fetch, with the digest of the whole content
+     */
+    public FetchResult complete() throws IOException {
+        if (notModified) {
+            return FetchResult.notModified();
+        }
+        byte[] buffer = new byte[8192];
+        while (read(buffer) != -1) {
+            // drain
+        }
+        completed = true;
+        close();
+        if (archive != null) {
+            FileUtils.deleteQuietly(archive);
+            FileUtils.moveFile(partial, archive);
+        }
+        return new FetchResult(true, FileFetch.toHex(digest.digest()), counter.getByteCount(), validators);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            checkLength();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n == -1) {
+            checkLength();
+        }
+        return n;
+    }
+
+    /*
+     * A connection closed before the announced length must fail the parser, not end the data set early
+     */
+    private void checkLength() throws IOException {
+        if (expectedLength >= 0 && counter.getByteCount() < expectedLength) {
+            throw new IOException("premature end of stream after " + counter.getByteCount() + " of "
+                    + expectedLength + " bytes");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (notModified) {
+            return;
+        }
+        try {
+            super.close();
+        } finally {
+            if (!completed && partial != null) {
+                FileUtils.deleteQuietly(partial);
+            }
+        }
+    }
+
+    private static File partialFile(File archive) {
+        return new File(archive.getPath() + PARTIAL_SUFFIX);
+    }
+}
@@ -27,36 +27,189 @@
 package dk.nsi.haiba.fgrimporter.importer;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Properties;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
 public class FileFetch {
     private static final Logger log = Logger.getLogger(FileFetch.class);
 
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int CONNECTION_TIMEOUT_MS = 30000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private static final String VALIDATORS_SUFFIX = ".validators";
+    private static final String VALIDATOR_URL = "url";
+    private static final String VALIDATOR_ETAG = "ETag";
+    private static final String VALIDATOR_LAST_MODIFIED = "Last-Modified";
+
     public static boolean fetch(URL url, File destination) {
-        boolean returnValue = false;
+        return fetchWithDigest(url, destination).isFetched();
+    }
+
+    public static FetchResult fetchWithDigest(URL url, File destination) {
+        return fetchWithDigest(url, destination, false);
+    }
+
+    /**
+     * Fetches the url to the destination file, computing a digest of the content while it is downloaded.
+     * <p/>
+     * If conditional is set and the url is http, the validators stored by {@link #storeValidators(URL, File,
+     * FetchResult)} after the last import are sent as If-None-Match/If-Modified-Since. If the server answers 304 Not
+     * Modified nothing is downloaded and the result is {@link FetchResult#isNotModified()}. Servers without validator
+     * support, and ftp urls, are fetched unconditionally.
+     */
+    public static FetchResult fetchWithDigest(URL url, File destination, boolean conditional) {
         log.info("Fetching from " + url + ", writing to " + destination.getAbsolutePath());
+        FetchStream stream = null;
         try {
             long time = System.currentTimeMillis();
-            int connectionTimeoutMs = 30000;
-            int readTimeoutMs = 30000;
-            FileUtils.copyURLToFile(url, destination, connectionTimeoutMs, readTimeoutMs);
-            log.debug("fetch: done, in " + ((System.currentTimeMillis() - time) / 1000d) + " seconds, "
-                    + destination.length() + " bytes");
-            returnValue = true;
+            stream = open(url, destination, true, conditional);
+            FetchResult result = stream.complete();
+            if (result.isFetched()) {
+                log.debug("fetch: done, in " + ((System.currentTimeMillis() - time) / 1000d) + " seconds, "
+                        + result.getBytes() + " bytes, digest " + result.getDigest());
+            }
+            return result;
         } catch (IOException e) {
             log.error("Unable to retrieve from " + url, e);
+        } finally {
+            IOUtils.closeQuietly(stream);
         }
-        return returnValue;
+        return FetchResult.failed();
+    }
+
+    /**
+     * Opens the url for reading while it is downloaded, see {@link FetchStream}. Conditional works as for
+     * {@link #fetchWithDigest(URL, File, boolean)}, if the server answers 304 the stream is
+     * {@link FetchStream#isNotModified()}.
+     *
+     * @param destination where the file is kept, and the validators for conditional requests are looked up
+     * @param archive whether to keep a copy of the content in the destination file
+     */
+    public static FetchStream open(URL url, File destination, boolean archive, boolean conditional)
+            throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECTION_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            if (conditional) {
+                addConditionalHeaders(http, url, destination);
+            }
+            if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                log.info(url + " is not modified since the last import");
+                http.disconnect();
+                return FetchStream.notModified();
+            }
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream is = connection.getInputStream();
+        try {
+            return new FetchStream(is, connection.getContentLength(), digest, getValidators(connection),
+                    archive ? destination : null);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(is);
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the validators of a fetch next to the destination file, to be sent with the next conditional fetch. Only
+     * call this when the fetched file has been imported, or a 304 would skip a file that never made it to the
+     * database.
+     */
+    public static void storeValidators(URL url, File destination, FetchResult result) {
+        File file = new File(destination.getPath() + VALIDATORS_SUFFIX);
+        Properties validators = result.getValidators();
+        if (validators.isEmpty()) {
+            FileUtils.deleteQuietly(file);
+            return;
+        }
+        validators.setProperty(VALIDATOR_URL, url.toString());
+        OutputStream os = null;
+        try {
+            os = FileUtils.openOutputStream(file);
+            validators.store(os, null);
+        } catch (IOException e) {
+            log.warn("unable to store validators for " + url + ", next fetch is unconditional", e);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private static void addConditionalHeaders(HttpURLConnection http, URL url, File destination) {
+        File file = new File(destination.getPath() + VALIDATORS_SUFFIX);
+        if (!file.exists()) {
+            return;
+        }
+        Properties validators = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            validators.load(is);
+        } catch (IOException e) {
+            log.warn("unable to read validators for " + url + ", fetching unconditionally", e);
+            return;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        if (!url.toString().equals(validators.getProperty(VALIDATOR_URL))) {
+            return;
+        }
+        String etag = validators.getProperty(VALIDATOR_ETAG);
+        if (etag != null) {
+            http.setRequestProperty("If-None-Match", etag);
+        }
+        String lastModified = validators.getProperty(VALIDATOR_LAST_MODIFIED);
+        if (lastModified != null) {
+            http.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+
+    private static Properties getValidators(URLConnection connection) {
+        Properties validators = new Properties();
+        if (connection instanceof HttpURLConnection) {
+            String etag = connection.getHeaderField(VALIDATOR_ETAG);
+            if (etag != null) {
+                validators.setProperty(VALIDATOR_ETAG, etag);
+            }
+            String lastModified = connection.getHeaderField(VALIDATOR_LAST_MODIFIED);
+            if (lastModified != null) {
+                validators.setProperty(VALIDATOR_LAST_MODIFIED, lastModified);
+            }
+        }
+        return validators;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
     }
 
     public static InputStream getInputStreamFromZip(ZipFile z, String fileName) {
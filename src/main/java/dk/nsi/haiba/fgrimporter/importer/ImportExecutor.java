@@ -27,23 +27,39 @@
 package dk.nsi.haiba.fgrimporter.importer;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import dk.nsi.haiba.fgrimporter.dao.SHAKRegionDAO;
 import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
+import dk.nsi.haiba.fgrimporter.dao.TableDiff;
 import dk.nsi.haiba.fgrimporter.log.Log;
 import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
 import dk.nsi.haiba.fgrimporter.model.SKSLine;
-import dk.nsi.haiba.fgrimporter.parser.Parser;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+import dk.nsi.haiba.fgrimporter.parser.StreamParser;
 import dk.nsi.haiba.fgrimporter.status.ImportStatusRepository;
 
 /*
@@ -57,7 +73,7 @@ public class ImportExecutor {
     public static final String SKS = "sks";
     public static final String SOR = "sor";
 
-    private Map<String, Boolean> manualOverrideMap = new HashMap<String, Boolean>();
+    private Map<String, Boolean> manualOverrideMap = new ConcurrentHashMap<String, Boolean>();
 
     @Autowired
     private URL shakRemoteUrl;
@@ -75,13 +91,16 @@ public class ImportExecutor {
     ImportStatusRepository statusRepo;
 
     @Autowired
-    Parser sorParser;
+    ImportGuard importGuard;
+
+    @Autowired
+    StreamParser sorParser;
 
     @Autowired
     SKSParser<Organisation> shakParser;
     
     @Autowired
-    Parser shakRegionParser;
+    ShakRegionImporter shakRegionParser;
 
     @Autowired
     SKSDAO<Organisation> shakDao;
@@ -95,23 +114,166 @@ public class ImportExecutor {
     @Autowired
     SKSDAO<SKSLine> sksDao;
 
+    @Value("${import.streaming:false}")
+    boolean streaming;
+
+    @Value("${import.streaming.buffersize:10000}")
+    int streamingBufferSize;
+
+    @Value("${jdbc.batchsize:1000}")
+    int batchSize;
+
+    @Autowired
+    @Qualifier("haibaTransactionManager")
+    PlatformTransactionManager transactionManager;
+
+    @Value("${import.commit.rows:0}")
+    int commitRows;
+
+    @Value("${import.shadowtable:false}")
+    boolean shadowTable;
+
+    @Value("${import.diff:false}")
+    boolean diff;
+
+    @Value("${import.columnar:false}")
+    boolean columnar;
+
+    @Value("${import.shakregion.enrich:false}")
+    boolean enrichShakRegions;
+
+    @Value("${import.skipunchanged:true}")
+    boolean skipUnchanged;
+
+    @Value("${import.conditionalget:true}")
+    boolean conditionalGet;
+
+    @Value("${import.streamfromremote:false}")
+    boolean streamFromRemote;
+
+    @Value("${import.streamfromremote.archive:true}")
+    boolean archiveRemote;
+
+    @Value("${import.streamfromremote.prefetch:0}")
+    int prefetchChunks;
+
+    @Value("${import.graph:false}")
+    boolean importGraph;
+
+    @Autowired
+    @Qualifier("importGraphExecutor")
+    TaskExecutor graphExecutor;
+
+    private volatile ImportGraph.Run lastGraphRun;
+
     public void runManual(String type) {
         log.debug("running " + type + " manually");
         setManualOverride(type, true);
+        // a manual run always imports, also when the file is unchanged
         if (SOR.equals(type)) {
-            runSor();
+            runSor(true);
         } else if (SKS.equals(type)) {
-            runSks();
+            runSks(true);
         } else if (SHAK.equals(type)) {
-            runShak();
+            runShak(true);
         } else {
             log.error("not able to run type " + type);
         }
     }
 
+    @Scheduled(cron = "${cron.import.graph.job}")
+    public void cronGraph() {
+        if (importGraph) {
+            runGraph();
+        }
+    }
+
+    /**
+     * Runs the imports as a graph: sks, and shak followed by shakregion and sor, which depend on class_shak. A type
+     * started manually from the status page is left out, like its cron job.
+     */
+    public ImportGraph.Run runGraph() {
+        log.debug("Running import graph: " + new Date().toString());
+        ImportGraph graph = new ImportGraph();
+        graph.add(SHAK, new GraphTask(SHAK, SHAK) {
+            @Override
+            ImportGraph.Outcome importType(boolean upstreamChanged) {
+                if (enrichesShak()) {
+                    return runShakEnriched(false);
+                }
+                return doProcess(shakDao, shakParser, SHAK, shakRemoteUrl, false);
+            }
+        });
+        if (!enrichesShak()) {
+            // the regions update class_shak, so they run under the shak guard
+            graph.add(SHAKREGION, new GraphTask(SHAKREGION, SHAK) {
+                @Override
+                ImportGraph.Outcome importType(boolean upstreamChanged) {
+                    return fetchAndProcess(shakRegionParser, SHAKREGION, shakRegionRemoteUrl, !upstreamChanged);
+                }
+            }, SHAK);
+        }
+        graph.add(SOR, new GraphTask(SOR, SOR) {
+            @Override
+            ImportGraph.Outcome importType(boolean upstreamChanged) {
+                return fetchAndProcess(sorParser, SOR, sorRemoteUrl, !upstreamChanged);
+            }
+        }, SHAK);
+        graph.add(SKS, new GraphTask(SKS, SKS) {
+            @Override
+            ImportGraph.Outcome importType(boolean upstreamChanged) {
+                return doProcess(sksDao, sksParser, SKS, sksRemoteUrl, false);
+            }
+        });
+        ImportGraph.Run run = graph.run(graphExecutor);
+        log.info("import graph " + run);
+        lastGraphRun = run;
+        return run;
+    }
+
+    /**
+     * The last run of the import graph, null if it has not run since the start.
+     */
+    public ImportGraph.Run getLastGraphRun() {
+        return lastGraphRun;
+    }
+
+    /*
+     * A node of the import graph, importing its type under the guard of the table it writes
+     */
+    private abstract class GraphTask implements ImportGraph.Task {
+        private final String type;
+        private final String guard;
+
+        GraphTask(String type, String guard) {
+            this.type = type;
+            this.guard = guard;
+        }
+
+        @Override
+        public ImportGraph.Outcome run(final boolean upstreamChanged) {
+            if (isManualOverride(type)) {
+                log.debug(type + " importer must be started manually");
+                return ImportGraph.Outcome.SKIPPED;
+            }
+            final ImportGraph.Outcome[] outcome = { ImportGraph.Outcome.SKIPPED };
+            importGuard.runExclusive(guard, new Runnable() {
+                @Override
+                public void run() {
+                    outcome[0] = importType(upstreamChanged);
+                }
+            });
+            return outcome[0];
+        }
+
+        abstract ImportGraph.Outcome importType(boolean upstreamChanged);
+    }
+
     @Scheduled(cron = "${cron.sor.import.job}")
     public void cronSor() {
-        if (!isManualOverride(SOR)) {
+        if (importGraph) {
+            log.debug("Sor is imported by the import graph");
+        } else if (!isManualOverride(SOR)) {
             runSor();
         } else {
             log.debug("Sor importer must be started manually");
@@ -119,25 +281,24 @@ public class ImportExecutor {
     }
 
     public void runSor() {
-        log.debug("Running sor Importer: " + new Date().toString());
-        statusRepo.importStartedAt(new DateTime(), SOR);
-        File destination = resolveDestinationFile(SOR, sorRemoteUrl);
-        boolean fetched = FileFetch.fetch(sorRemoteUrl, destination);
-        if (fetched) {
-            try {
-                sorParser.process(destination, SOR);
-                statusRepo.importEndedWithSuccess(new DateTime(), SOR);
-            } catch (Exception e) {
-                statusRepo.importEndedWithFailure(new DateTime(), e.getMessage(), SOR);
+        runSor(false);
+    }
+
+    private void runSor(final boolean force) {
+        importGuard.runExclusive(SOR, new Runnable() {
+            @Override
+            public void run() {
+                log.debug("Running sor Importer: " + new Date().toString());
+                fetchAndProcess(sorParser, SOR, sorRemoteUrl, !force);
             }
-        } else {
-            statusRepo.importEndedWithFailure(new DateTime(), "file fetch failed from " + sorRemoteUrl, SOR);
-        }
+        });
     }
 
     @Scheduled(cron = "${cron.shak.import.job}")
     public void cronShak() {
-        if (!isManualOverride(SHAK)) {
+        if (importGraph) {
+            log.debug("Shak is imported by the import graph");
+        } else if (!isManualOverride(SHAK)) {
             runShak();
         } else {
             log.debug("Shak importer must be started manually");
@@ -145,27 +306,99 @@ public class ImportExecutor {
     }
 
     public void runShak() {
+        runShak(false);
+    }
+
+    private void runShak(final boolean force) {
+        // the shakregion post processing updates class_shak, so it runs under the shak guard
+        importGuard.runExclusive(SHAK, new Runnable() {
+            @Override
+            public void run() {
+                importShak(force);
+            }
+        });
+    }
+
+    private void importShak(boolean force) {
         log.debug("Running shak Importer: " + new Date().toString());
-        doProcess(shakDao, shakParser, SHAK, shakRemoteUrl);
-        // post process, add values from SHAKRegion
+        if (enrichesShak()) {
+            runShakEnriched(force);
+            return;
+        }
+        boolean reloaded = doProcess(shakDao, shakParser, SHAK, shakRemoteUrl, force) == ImportGraph.Outcome.CHANGED;
+        // post process, add values from SHAKRegion. A reloaded class_shak has lost them, so they must be applied
+        // again even if the region file is unchanged
+        fetchAndProcess(shakRegionParser, SHAKREGION, shakRegionRemoteUrl, !force && !reloaded);
+    }
+
+    private boolean enrichesShak() {
+        return enrichShakRegions && !shakParser.isDelta() && !diff && !columnar;
+    }
+
+    /*
+     * The SHAKregion file is fetched and indexed first, and the SHAK records are enriched with their region while they
+     * are parsed, so class_shak is written once instead of being updated region by region after the load. Delta, diff
+     * and columnar loads do not write every row, so they keep the update pass. Returns the outcome for class_shak,
+     * CHANGED also when only its regions were updated
+     */
+    private ImportGraph.Outcome runShakEnriched(boolean force) {
         statusRepo.importStartedAt(new DateTime(), SHAKREGION);
         File destination = resolveDestinationFile(SHAKREGION, shakRegionRemoteUrl);
-        boolean fetched = FileFetch.fetch(shakRegionRemoteUrl, destination);
-        if (fetched) {
+        FetchResult fetched = FileFetch.fetchWithDigest(shakRegionRemoteUrl, destination, false);
+        ShakRegionIndex regions = null;
+        if (fetched.isFetched()) {
             try {
-                shakRegionParser.process(destination, SHAKREGION);
-                statusRepo.importEndedWithSuccess(new DateTime(), SHAKREGION);
+                ImportJob.progress(ImportJob.Phase.PARSING);
+                regions = new ShakRegionIndex(shakRegionParser.parse(destination));
             } catch (Exception e) {
-                statusRepo.importEndedWithFailure(new DateTime(), e.getMessage(), SHAKREGION);
+                log.error("error parsing " + destination, e);
+                importEndedWithFailure(SHAKREGION, e.getMessage());
             }
         } else {
-            statusRepo.importEndedWithFailure(new DateTime(), "file fetch failed from " + shakRegionRemoteUrl, SHAKREGION);
+            importEndedWithFailure(SHAKREGION, "file fetch failed from " + shakRegionRemoteUrl);
+        }
+
+        // without regions the records are loaded as they are
+        ImportGraph.Outcome shak;
+        shakParser.setEnricher(regions);
+        try {
+            shak = doProcess(shakDao, shakParser, SHAK, shakRemoteUrl, force);
+        } catch (RuntimeException e) {
+            if (regions != null) {
+                importEndedWithFailure(SHAKREGION, "shak import failed");
+            }
+            throw e;
+        } finally {
+            shakParser.setEnricher(null);
         }
+        if (regions == null) {
+            return shak;
+        }
+        if (shak == ImportGraph.Outcome.FAILED) {
+            importEndedWithFailure(SHAKREGION, "shak import failed");
+        } else if (shak == ImportGraph.Outcome.CHANGED) {
+            log.debug(regions.getMatched() + " shak records enriched from " + regions.size() + " regions");
+            importEndedWithSuccess(SHAKREGION, fetched.getDigest());
+            FileFetch.storeValidators(shakRegionRemoteUrl, destination, fetched);
+        } else if (force || !isUnchanged(SHAKREGION, shakRegionRemoteUrl, destination, fetched)) {
+            // class_shak kept its rows, the changed regions are applied to them
+            try {
+                shakRegionParser.process(destination, SHAKREGION);
+                importEndedWithSuccess(SHAKREGION, fetched.getDigest());
+                FileFetch.storeValidators(shakRegionRemoteUrl, destination, fetched);
+                return ImportGraph.Outcome.CHANGED;
+            } catch (Exception e) {
+                importEndedWithFailure(SHAKREGION, e.getMessage());
+            }
+        }
+        return shak;
     }
 
     @Scheduled(cron = "${cron.sks.import.job}")
     public void cronSks() {
-        if (!isManualOverride(SKS)) {
+        if (importGraph) {
+            log.debug("Sks is imported by the import graph");
+        } else if (!isManualOverride(SKS)) {
             runSks();
         } else {
             log.debug("Sks importer must be started manually");
@@ -173,42 +406,494 @@ public class ImportExecutor {
     }
 
     public void runSks() {
-        log.debug("Running sks Importer: " + new Date().toString());
-        doProcess(sksDao, sksParser, SKS, sksRemoteUrl);
+        runSks(false);
+    }
+
+    private void runSks(final boolean force) {
+        importGuard.runExclusive(SKS, new Runnable() {
+            @Override
+            public void run() {
+                log.debug("Running sks Importer: " + new Date().toString());
+                doProcess(sksDao, sksParser, SKS, sksRemoteUrl, force);
+            }
+        });
     }
 
     /*
      * Separated into its own method for testing purpose, because testing a scheduled method isn't good
      */
     public <T extends SKSLine> void doProcess(SKSDAO<T> dao, SKSParser<T> parser, String type, URL remoteUrl) {
+        doProcess(dao, parser, type, remoteUrl, false);
+    }
+
+    /*
+     * Returns CHANGED if the table was loaded, UNCHANGED if the file was unchanged and FAILED if it could not be
+     * fetched. A failed load is thrown
+     */
+    private <T extends SKSLine> ImportGraph.Outcome doProcess(SKSDAO<T> dao, SKSParser<T> parser, String type,
+            URL remoteUrl, boolean force) {
         // Fetch new records from LPR contact table
         try {
+            ImportJob.progress(ImportJob.Phase.FETCHING);
             statusRepo.importStartedAt(new DateTime(), type);
             File destination = resolveDestinationFile(type, remoteUrl);
-            boolean fetched = FileFetch.fetch(remoteUrl, destination);
+            if (streamFromRemote) {
+                return streamAndLoad(dao, parser, type, remoteUrl, destination, force);
+            }
+            FetchResult fetched = FileFetch.fetchWithDigest(remoteUrl, destination, conditional(type, !force));
 
-            if (fetched) {
-                parser.process(destination, "TODO");
-                Set<T> entities = parser.getEntities();
-                if (entities != null && !entities.isEmpty()) {
-                    dao.clearTable();
-                    for (T t : entities) {
-                        dao.saveEntity(t);
-                    }
-                    log.debug("stored " + entities.size() + " for " + type);
+            if (fetched.isNotModified()) {
+                importEndedNotModified(type);
+                return ImportGraph.Outcome.UNCHANGED;
+            } else if (fetched.isFetched()) {
+                if (!force && isUnchanged(type, remoteUrl, destination, fetched)) {
+                    return ImportGraph.Outcome.UNCHANGED;
                 }
+                ImportJob.progress(ImportJob.Phase.PARSING);
+                long stored = load(dao, parser, LoadInput.of(destination), type, null);
+                log.debug("stored " + stored + " for " + type);
+                ImportJob.progress(ImportJob.Phase.STORING, stored);
+                reportParse(parser, type);
 
-                statusRepo.importEndedWithSuccess(new DateTime(), type);
+                importEndedWithSuccess(type, fetched.getDigest());
+                FileFetch.storeValidators(remoteUrl, destination, fetched);
+                return ImportGraph.Outcome.CHANGED;
             } else {
-                statusRepo.importEndedWithFailure(new DateTime(), "file not fetched from " + remoteUrl, type);
+                importEndedWithFailure(type, "file not fetched from " + remoteUrl);
+                return ImportGraph.Outcome.FAILED;
             }
         } catch (Exception e) {
             log.error("error fetching and parsing " + remoteUrl, e);
-            statusRepo.importEndedWithFailure(new DateTime(), e.getMessage(), type);
+            importEndedWithFailure(type, e.getMessage());
             throw new RuntimeException("runParserOnInbox failed", e); // to make sure the transaction rolls back
         }
     }
 
+    /*
+     * As doProcess, but the records are parsed and loaded while the file is downloaded. The digest is only known
+     * when the whole file has been read, so an unchanged file can only be skipped by the conditional request
+     */
+    private <T extends SKSLine> ImportGraph.Outcome streamAndLoad(SKSDAO<T> dao, SKSParser<T> parser, String type,
+            URL remoteUrl, File destination, boolean force) throws IOException {
+        FetchStream stream;
+        try {
+            stream = FileFetch.open(remoteUrl, destination, archiveRemote, conditional(type, !force));
+        } catch (IOException e) {
+            log.error("Unable to retrieve from " + remoteUrl, e);
+            importEndedWithFailure(type, "file not fetched from " + remoteUrl);
+            return ImportGraph.Outcome.FAILED;
+        }
+        try {
+            if (stream.isNotModified()) {
+                importEndedNotModified(type);
+                return ImportGraph.Outcome.UNCHANGED;
+            }
+            ImportJob.progress(ImportJob.Phase.PARSING);
+            long stored;
+            if (prefetchChunks > 0) {
+                ImportPipeline pipeline = new ImportPipeline();
+                PrefetchInputStream prefetch = prefetch(stream, type, pipeline);
+                try {
+                    stored = load(dao, parser, LoadInput.of(prefetch), type, pipeline);
+                    prefetch.drain();
+                } finally {
+                    prefetch.close();
+                }
+                log.info(type + " pipeline " + pipeline);
+            } else {
+                stored = load(dao, parser, LoadInput.of(stream), type, null);
+            }
+            ImportJob.progress(ImportJob.Phase.STORING, stored);
+            FetchResult fetched = stream.complete();
+            log.debug("stored " + stored + " for " + type + ", " + fetched.getBytes() + " bytes streamed");
+            reportParse(parser, type);
+
+            importEndedWithSuccess(type, fetched.getDigest());
+            FileFetch.storeValidators(remoteUrl, destination, fetched);
+            return ImportGraph.Outcome.CHANGED;
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /*
+     * Returns CHANGED if the file was imported, UNCHANGED if it was skipped as unchanged
+     */
+    private ImportGraph.Outcome fetchAndProcess(StreamParser parser, String type, URL remoteUrl, boolean skippable) {
+        ImportJob.progress(ImportJob.Phase.FETCHING);
+        statusRepo.importStartedAt(new DateTime(), type);
+        File destination = resolveDestinationFile(type, remoteUrl);
+        if (streamFromRemote) {
+            return streamAndProcess(parser, type, remoteUrl, destination, skippable);
+        }
+        FetchResult fetched = FileFetch.fetchWithDigest(remoteUrl, destination, conditional(type, skippable));
+        if (fetched.isNotModified()) {
+            importEndedNotModified(type);
+            return ImportGraph.Outcome.UNCHANGED;
+        } else if (fetched.isFetched()) {
+            if (skippable && isUnchanged(type, remoteUrl, destination, fetched)) {
+                return ImportGraph.Outcome.UNCHANGED;
+            }
+            try {
+                ImportJob.progress(ImportJob.Phase.PARSING);
+                parser.process(destination, type);
+                importEndedWithSuccess(type, fetched.getDigest());
+                FileFetch.storeValidators(remoteUrl, destination, fetched);
+                return ImportGraph.Outcome.CHANGED;
+            } catch (Exception e) {
+                importEndedWithFailure(type, e.getMessage());
+            }
+        } else {
+            importEndedWithFailure(type, "file fetch failed from " + remoteUrl);
+        }
+        return ImportGraph.Outcome.FAILED;
+    }
+
+    /*
+     * As fetchAndProcess, but the parser reads the file while it is downloaded
+     */
+    private ImportGraph.Outcome streamAndProcess(StreamParser parser, String type, URL remoteUrl, File destination,
+            boolean skippable) {
+        FetchStream stream;
+        try {
+            stream = FileFetch.open(remoteUrl, destination, archiveRemote, conditional(type, skippable));
+        } catch (IOException e) {
+            log.error("Unable to retrieve from " + remoteUrl, e);
+            importEndedWithFailure(type, "file fetch failed from " + remoteUrl);
+            return ImportGraph.Outcome.FAILED;
+        }
+        try {
+            if (stream.isNotModified()) {
+                importEndedNotModified(type);
+                return ImportGraph.Outcome.UNCHANGED;
+            }
+            ImportJob.progress(ImportJob.Phase.PARSING);
+            if (prefetchChunks > 0) {
+                ImportPipeline pipeline = new ImportPipeline();
+                PrefetchInputStream prefetch = prefetch(stream, type, pipeline);
+                try {
+                    parser.process(prefetch, destination.getName(), type);
+                    pipeline.parsed();
+                    prefetch.drain();
+                } finally {
+                    prefetch.close();
+                }
+                log.info(type + " pipeline " + pipeline.fetch + ", " + pipeline.parse);
+            } else {
+                parser.process(stream, destination.getName(), type);
+            }
+            FetchResult fetched = stream.complete();
+            importEndedWithSuccess(type, fetched.getDigest());
+            FileFetch.storeValidators(remoteUrl, destination, fetched);
+            return ImportGraph.Outcome.CHANGED;
+        } catch (Exception e) {
+            importEndedWithFailure(type, e.getMessage());
+            return ImportGraph.Outcome.FAILED;
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /*
+     * The download runs on a fetch thread of its own, at most prefetchChunks chunks ahead of the parser. The stream
+     * must be drained, and the prefetch closed, before the fetch stream is completed or closed
+     */
+    private PrefetchInputStream prefetch(FetchStream stream, String type, ImportPipeline pipeline) {
+        return new PrefetchInputStream(stream, prefetchChunks, type, pipeline.fetch, pipeline.parse);
+    }
+
+    /*
+     * Returns true, and records the run as unchanged, if the fetched file is identical to the one of the last
+     * successful import of the type. There is nothing to parse or store then
+     */
+    private boolean isUnchanged(String type, URL remoteUrl, File destination, FetchResult fetched) {
+        if (skipUnchanged && fetched.getDigest() != null
+                && fetched.getDigest().equals(statusRepo.getLastSuccessfulDigest(type))) {
+            log.info(type + " is unchanged since the last import, digest " + fetched.getDigest());
+            statusRepo.importEndedUnchanged(new DateTime(), type, fetched.getDigest());
+            FileFetch.storeValidators(remoteUrl, destination, fetched);
+            return true;
+        }
+        return false;
+    }
+
+    private void reportParse(SKSParser<?> parser, String type) {
+        if (!parser.isDelta() && parser.getDuplicates() > 0) {
+            log.info("skipped " + parser.getDuplicates() + " duplicate " + type + " records");
+        }
+        log.debug(type + " record types and texts " + parser.getStringPool());
+    }
+
+    /*
+     * The validators stored by the last successful fetch are only sent when the last finished import of the type
+     * succeeded. A 304 after a failed import would record the table as unchanged, as the failure left it
+     */
+    private boolean conditional(String type, boolean skippable) {
+        return skippable && conditionalGet && statusRepo.getLastSuccessfulDigest(type) != null;
+    }
+
+    /*
+     * A run that lost its lease fails instead, another node may have loaded the table alongside it
+     */
+    private void importEndedWithSuccess(String type, String digest) {
+        ImportGuard.checkLease();
+        statusRepo.importEndedWithSuccess(new DateTime(), type, digest);
+    }
+
+    /*
+     * A manual job of the type ends as failed, also when the failure is recorded instead of thrown
+     */
+    private void importEndedWithFailure(String type, String errorMessage) {
+        statusRepo.importEndedWithFailure(new DateTime(), errorMessage, type);
+        ImportJob.failed(type + ": " + errorMessage);
+    }
+
+    /*
+     * The server answered 304 to a conditional fetch, the content is still the one of the last import
+     */
+    private void importEndedNotModified(String type) {
+        statusRepo.importEndedUnchanged(new DateTime(), type, statusRepo.getLastSuccessfulDigest(type));
+    }
+
+    /*
+     * Loads the records and logs the write rate of the whole import, the DAOs log each batch at debug
+     */
+    private <T extends SKSLine> long load(SKSDAO<T> dao, SKSParser<T> parser, LoadInput input, String type,
+            ImportPipeline pipeline) {
+        long start = System.currentTimeMillis();
+        long stored = loadTable(dao, parser, input, type, pipeline);
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        log.info("stored " + stored + " " + type + " records in " + (millis / 1000d) + " seconds, "
+                + (stored * 1000L / millis) + " records/s");
+        return stored;
+    }
+
+    /*
+     * With shadowTable the records are loaded into a staging copy of the table, which is swapped in when everything
+     * is stored, so readers keep seeing the previous content until then. Nothing is changed if the file holds no
+     * records. The pipeline is set when the file is fetched on a stage of its own, the parse and persist stages are
+     * added to it
+     */
+    <T extends SKSLine> long loadTable(SKSDAO<T> dao, SKSParser<T> parser, LoadInput input, String type,
+            ImportPipeline pipeline) {
+        if (parser.isDelta()) {
+            return loadDelta(dao, parser, input, type);
+        }
+        if (diff) {
+            return loadDiff(dao, parser, input, type);
+        }
+        if (shadowTable) {
+            dao.beginShadowLoad();
+        }
+        try {
+            long stored = 0;
+            if (streaming) {
+                stored = stream(dao, parser, input, type, pipeline);
+            } else if (columnar) {
+                SKSColumns columns = input.processColumns(parser);
+                parsed(pipeline);
+                ImportJob.progress(ImportJob.Phase.STORING);
+                if (columns.size() > 0) {
+                    if (commitRows > 0) {
+                        SKSDAOSink<T> sink = daoSink(dao);
+                        sink.addColumns(columns);
+                        sink.close();
+                    } else {
+                        if (!shadowTable) {
+                            dao.clearTable();
+                        }
+                        dao.saveColumns(columns, new Date());
+                    }
+                    stored = columns.size();
+                }
+            } else {
+                input.process(parser, type);
+                parsed(pipeline);
+                Set<T> entities = parser.getEntities();
+                if (entities != null && !entities.isEmpty()) {
+                    ImportJob.progress(ImportJob.Phase.STORING);
+                    if (commitRows > 0) {
+                        SKSDAOSink<T> sink = daoSink(dao);
+                        for (T entity : entities) {
+                            sink.add(entity);
+                        }
+                        sink.close();
+                    } else {
+                        if (!shadowTable) {
+                            dao.clearTable();
+                        }
+                        dao.saveEntities(entities, new Date());
+                    }
+                    stored = entities.size();
+                }
+            }
+            if (shadowTable) {
+                if (stored > 0) {
+                    ImportGuard.checkLease();
+                    dao.swapShadowTable();
+                } else {
+                    dao.discardShadowLoad();
+                }
+            }
+            return stored;
+        } catch (RuntimeException e) {
+            if (shadowTable) {
+                dao.discardShadowLoad();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * A delta file is applied to the live table row by row, also with shadowTable, so a delta of a few hundred lines
+     * costs a few hundred statements instead of a reload of the table
+     */
+    private <T extends SKSLine> long loadDelta(final SKSDAO<T> dao, SKSParser<T> parser, LoadInput input,
+            String type) {
+        SKSDeltaSink<T> delta = new SKSDeltaSink<T>();
+        input.process(parser, delta);
+        delta.close();
+        final Collection<T> records = delta.getRecords();
+        if (!records.isEmpty()) {
+            inTransaction(new TransactionCallback<Object>() {
+                @Override
+                public Object doInTransaction(TransactionStatus status) {
+                    dao.applyDelta(records, new Date());
+                    return null;
+                }
+            });
+        }
+        log.debug("applied " + records.size() + " records of " + delta.getLines() + " delta lines for " + type);
+        return records.size();
+    }
+
+    /*
+     * The parsed records are held and joined with the rows of the table as they are read, and only the rows that differ
+     * are written, which keeps the writes, and the locks seen by readers, to the codes that actually changed. Nothing
+     * is changed if the file holds no records
+     */
+    private <T extends SKSLine> long loadDiff(final SKSDAO<T> dao, SKSParser<T> parser, LoadInput input,
+            String type) {
+        final List<T> parsed = new ArrayList<T>();
+        input.process(parser, new RecordSink<T>() {
+            @Override
+            public void add(T t) {
+                parsed.add(t);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        if (parsed.isEmpty()) {
+            return 0;
+        }
+        TableDiff<T> changes = inTransaction(new TransactionCallback<TableDiff<T>>() {
+            @Override
+            public TableDiff<T> doInTransaction(TransactionStatus status) {
+                return dao.sync(parsed, new Date());
+            }
+        });
+        statusRepo.importChanges(type, changes.getInserts().size(), changes.getUpdates().size(),
+                changes.getDeleted());
+        return parsed.size();
+    }
+
+    private void parsed(ImportPipeline pipeline) {
+        if (pipeline != null) {
+            pipeline.parsed();
+        }
+    }
+
+    /*
+     * Parses on the calling thread while the records are written to the database on a writer thread, with at most
+     * streamingBufferSize records in between. A slow database throttles the parser, and through the prefetch queue
+     * the download
+     */
+    private <T extends SKSLine> long stream(SKSDAO<T> dao, SKSParser<T> parser, LoadInput input, String type,
+            ImportPipeline pipeline) {
+        ImportPipeline stages = pipeline != null ? pipeline : new ImportPipeline();
+        SKSDAOSink<T> daoSink = daoSink(dao);
+        BufferedRecordSink<T> sink = new BufferedRecordSink<T>(daoSink, streamingBufferSize, type, stages.parse,
+                stages.persist);
+        try {
+            input.process(parser, sink);
+        } catch (RuntimeException e) {
+            sink.abort();
+            throw e;
+        }
+        sink.close();
+        stages.parsed();
+        if (pipeline == null) {
+            log.info(type + " pipeline " + stages.parse + ", " + stages.persist);
+        }
+        return daoSink.getCount();
+    }
+
+    /*
+     * With commitRows every commitRows records are written and committed in a transaction of their own, otherwise
+     * every jdbc batch of batchSize rows commits on its own
+     */
+    private <T extends SKSLine> SKSDAOSink<T> daoSink(SKSDAO<T> dao) {
+        if (commitRows <= 0) {
+            return new SKSDAOSink<T>(dao, batchSize, !shadowTable);
+        }
+        SKSDAOSink<T> sink = new SKSDAOSink<T>(dao, commitRows, !shadowTable);
+        sink.setTransactionTemplate(new TransactionTemplate(transactionManager));
+        return sink;
+    }
+
+    /*
+     * A delta or the changes of a diff are few rows, with commitRows they are applied in one transaction
+     */
+    private <R> R inTransaction(TransactionCallback<R> callback) {
+        if (commitRows <= 0) {
+            return callback.doInTransaction(null);
+        }
+        long start = System.currentTimeMillis();
+        R result = new TransactionTemplate(transactionManager).execute(callback);
+        log.debug("transaction committed after " + (System.currentTimeMillis() - start) + " ms");
+        return result;
+    }
+
+    /*
+     * What a load parses: the downloaded file, which the parser maps into memory and parses in ranges on its parse
+     * threads, or the stream of a download in progress, which is parsed on the calling thread
+     */
+    static final class LoadInput {
+        private final File file;
+        private final InputStream stream;
+
+        private LoadInput(File file, InputStream stream) {
+            this.file = file;
+            this.stream = stream;
+        }
+
+        static LoadInput of(File file) {
+            return new LoadInput(file, null);
+        }
+
+        static LoadInput of(InputStream stream) {
+            return new LoadInput(null, stream);
+        }
+
+        <T extends SKSLine> long process(SKSParser<T> parser, RecordSink<T> sink) {
+            return file != null ? parser.process(file, sink) : parser.process(stream, sink);
+        }
+
+        SKSColumns processColumns(SKSParser<?> parser) {
+            return file != null ? parser.processColumns(file) : parser.processColumns(stream);
+        }
+
+        void process(SKSParser<?> parser, String type) {
+            if (file != null) {
+                parser.process(file, type);
+            } else {
+                parser.process(stream, type, "TODO");
+            }
+        }
+    }
+
     public static File resolveDestinationFile(String type, URL remoteUrl) {
         String simpleFileName = new File(remoteUrl.getFile()).getName();
         return new File(type + File.separator + simpleFileName);
@@ -0,0 +1,266 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * The imports of a run as a graph of nodes with the nodes they depend on. A node is started as soon as the nodes it
+ * depends on are done, so independent nodes run in parallel on the executor.
+ * <p/>
+ * A node is told whether one of its upstream nodes changed its table. If none did, the node may skip its own input
+ * when that is unchanged as well. A node whose upstream node failed or was skipped because of a failure is not run.
+ * <p/>
+ * Nodes can only depend on nodes added before them, so the graph has no cycles.
+ */
+public class ImportGraph {
+    private static Log log = new Log(Logger.getLogger(ImportGraph.class));
+
+    public enum Outcome {
+        CHANGED, UNCHANGED, FAILED, SKIPPED
+    }
+
+    public interface Task {
+        /**
+         * @param upstreamChanged true if a node this node depends on changed its table
+         */
+        Outcome run(boolean upstreamChanged);
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+    public ImportGraph add(String name, Task task, String... dependsOn) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException(name + " is already in the graph");
+        }
+        Node node = new Node(name, task);
+        for (String dependency : dependsOn) {
+            Node upstream = nodes.get(dependency);
+            if (upstream == null) {
+                throw new IllegalArgumentException(name + " depends on " + dependency + ", which is not in the graph");
+            }
+            node.upstream.add(upstream);
+            upstream.downstream.add(node);
+        }
+        nodes.put(name, node);
+        return this;
+    }
+
+    /**
+     * Runs every node and waits until they are all done.
+     */
+    public Run run(Executor executor) {
+        Run run = new Run(executor);
+        run.start();
+        return run;
+    }
+
+    private static class Node {
+        final String name;
+        final Task task;
+        final List<Node> upstream = new ArrayList<Node>();
+        final List<Node> downstream = new ArrayList<Node>();
+
+        Node(String name, Task task) {
+            this.name = name;
+            this.task = task;
+        }
+    }
+
+    /**
+     * The outcome and timing of every node of one run, and its critical path: the chain of nodes, each started when
+     * the one before it ended, that ended last and so decided how long the run took.
+     */
+    public class Run {
+        private final Executor executor;
+        private final Map<Node, Integer> waitingFor = new HashMap<Node, Integer>();
+        private final Map<String, Outcome> outcomes = new ConcurrentHashMap<String, Outcome>();
+        private final Set<String> blocked = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Map<String, long[]> times = new ConcurrentHashMap<String, long[]>();
+        private final CountDownLatch done = new CountDownLatch(nodes.size());
+        private long started;
+        private long ended;
+
+        private Run(Executor executor) {
+            this.executor = executor;
+        }
+
+        public Outcome getOutcome(String name) {
+            return outcomes.get(name);
+        }
+
+        public long getMillis(String name) {
+            long[] time = times.get(name);
+            return time != null ? time[1] - time[0] : 0;
+        }
+
+        public long getElapsedMillis() {
+            return ended - started;
+        }
+
+        /**
+         * The nodes of the critical path, in the order they ran.
+         */
+        public List<String> getCriticalPath() {
+            LinkedList<String> path = new LinkedList<String>();
+            Node last = latest(nodes.values());
+            while (last != null) {
+                path.addFirst(last.name);
+                last = latest(last.upstream);
+            }
+            return path;
+        }
+
+        /**
+         * The time from the start of the first node of the critical path to the end of its last node.
+         */
+        public long getCriticalPathMillis() {
+            List<String> path = getCriticalPath();
+            if (path.isEmpty()) {
+                return 0;
+            }
+            return times.get(path.get(path.size() - 1))[1] - times.get(path.get(0))[0];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Node node : nodes.values()) {
+                sb.append(node.name).append(' ').append(outcomes.get(node.name)).append(' ')
+                        .append(getMillis(node.name)).append(" ms, ");
+            }
+            sb.append("critical path");
+            String separator = " ";
+            for (String name : getCriticalPath()) {
+                sb.append(separator).append(name);
+                separator = " > ";
+            }
+            sb.append(", ").append(getCriticalPathMillis()).append(" ms of ").append(getElapsedMillis()).append(" ms");
+            return sb.toString();
+        }
+
+        private Node latest(Collection<Node> candidates) {
+            Node latest = null;
+            for (Node node : candidates) {
+                long[] time = times.get(node.name);
+                if (time != null && (latest == null || time[1] > times.get(latest.name)[1])) {
+                    latest = node;
+                }
+            }
+            return latest;
+        }
+
+        private void start() {
+            started = System.currentTimeMillis();
+            List<Node> ready = new ArrayList<Node>();
+            synchronized (this) {
+                for (Node node : nodes.values()) {
+                    waitingFor.put(node, node.upstream.size());
+                    if (node.upstream.isEmpty()) {
+                        ready.add(node);
+                    }
+                }
+            }
+            for (Node node : ready) {
+                submit(node);
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("interrupted while waiting for the imports");
+            }
+            ended = System.currentTimeMillis();
+        }
+
+        private void submit(final Node node) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    Outcome outcome = Outcome.FAILED;
+                    try {
+                        outcome = execute(node);
+                    } catch (RuntimeException e) {
+                        log.error("import " + node.name + " failed", e);
+                    } finally {
+                        completed(node, outcome, start);
+                    }
+                }
+            });
+        }
+
+        private Outcome execute(Node node) {
+            boolean upstreamChanged = false;
+            for (Node upstream : node.upstream) {
+                Outcome outcome = outcomes.get(upstream.name);
+                if (outcome == Outcome.FAILED || blocked.contains(upstream.name)) {
+                    log.info(node.name + " is skipped, it depends on " + upstream.name + " which did not complete");
+                    blocked.add(node.name);
+                    return Outcome.SKIPPED;
+                }
+                upstreamChanged |= outcome == Outcome.CHANGED;
+            }
+            Outcome outcome = node.task.run(upstreamChanged);
+            return outcome != null ? outcome : Outcome.UNCHANGED;
+        }
+
+        private void completed(Node node, Outcome outcome, long start) {
+            times.put(node.name, new long[] { start, System.currentTimeMillis() });
+            outcomes.put(node.name, outcome);
+            List<Node> ready = new ArrayList<Node>();
+            synchronized (this) {
+                for (Node downstream : node.downstream) {
+                    int left = waitingFor.get(downstream) - 1;
+                    waitingFor.put(downstream, left);
+                    if (left == 0) {
+                        ready.add(downstream);
+                    }
+                }
+            }
+            done.countDown();
+            for (Node downstream : ready) {
+                submit(downstream);
+            }
+        }
+    }
+}
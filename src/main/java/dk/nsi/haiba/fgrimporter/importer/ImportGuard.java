@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.status.ImportLeaseRepository;
+
+/**
+ * Makes sure an import type is run by one thread at a time, so a scheduled run and a manual run of the same type never
+ * clear and load the same table at the same time. A run that finds its type running is skipped, the running import
+ * covers it.
+ * <p/>
+ * With import.lease the type is also leased in the database for the run, so nodes sharing the HAIBA database do not
+ * import the same type at the same time either. The lease is renewed on a heartbeat thread every third of its
+ * duration while the import runs, and released when it ends. If a node dies, its lease expires and another node can
+ * take it.
+ * <p/>
+ * If the lease cannot be renewed, because another node took it or the database has not answered for the duration of
+ * the lease, it is lost. The writers of the run check the lease with {@link Lease#check()} before each batch, so the
+ * run fails instead of loading the table alongside the other node.
+ */
+public class ImportGuard {
+    private static Log log = new Log(Logger.getLogger(ImportGuard.class));
+
+    @Autowired
+    ImportLeaseRepository leases;
+
+    @Value("${import.lease:false}")
+    boolean lease;
+
+    @Value("${import.lease.seconds:300}")
+    int leaseSeconds = 300;
+
+    private static final ThreadLocal<Lease> CURRENT = new ThreadLocal<Lease>();
+
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+    private final ConcurrentMap<String, Lock> locks = new ConcurrentHashMap<String, Lock>();
+    private ScheduledExecutorService heartbeat;
+
+    /**
+     * @return the lease of the run on this thread, or null without import.lease. Threads started by the import check
+     *         the lease through it
+     */
+    public static Lease currentLease() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Fails the run on this thread if it lost its lease.
+     */
+    public static void checkLease() {
+        Lease current = CURRENT.get();
+        if (current != null) {
+            current.check();
+        }
+    }
+
+    /**
+     * Runs the import of the type, unless it is already running in this JVM or, with import.lease, on another node.
+     *
+     * @return false if the import was skipped
+     */
+    public boolean runExclusive(String type, Runnable run) {
+        Lock lock = locks.get(type);
+        if (lock == null) {
+            locks.putIfAbsent(type, new ReentrantLock());
+            lock = locks.get(type);
+        }
+        if (!lock.tryLock()) {
+            log.info(type + " import is already running, this run is skipped");
+            ImportJob.progress(ImportJob.Phase.SKIPPED);
+            return false;
+        }
+        try {
+            if (!lease) {
+                run.run();
+                return true;
+            }
+            if (!leases.acquire(type, owner, leaseSeconds)) {
+                log.info(type + " import is running on another node, this run is skipped");
+                ImportJob.progress(ImportJob.Phase.SKIPPED);
+                return false;
+            }
+            Lease held = new Lease(type);
+            ScheduledFuture<?> renewal = startHeartbeat(held);
+            CURRENT.set(held);
+            try {
+                run.run();
+                return true;
+            } finally {
+                CURRENT.remove();
+                renewal.cancel(false);
+                leases.release(type, owner);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ScheduledFuture<?> startHeartbeat(final Lease held) {
+        final String type = held.type;
+        long period = Math.max(1, leaseSeconds / 3);
+        return heartbeat().scheduleAtFixedRate(new Runnable() {
+            private long renewed = System.currentTimeMillis();
+
+            @Override
+            public void run() {
+                try {
+                    if (leases.renew(type, owner, leaseSeconds)) {
+                        renewed = System.currentTimeMillis();
+                    } else {
+                        log.error("lost the lease of the " + type + " import, the run is aborted");
+                        held.lost = true;
+                    }
+                } catch (RuntimeException e) {
+                    log.error("renewing the lease of the " + type + " import failed", e);
+                    if (System.currentTimeMillis() - renewed >= leaseSeconds * 1000L) {
+                        log.error("the lease of the " + type + " import has expired, the run is aborted");
+                        held.lost = true;
+                    }
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The lease of a type held by a run.
+     */
+    public static class Lease {
+        private final String type;
+        private volatile boolean lost;
+
+        Lease(String type) {
+            this.type = type;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * @throws IllegalStateException if the lease is lost, another node may be importing the type
+         */
+        public void check() {
+            if (lost) {
+                throw new IllegalStateException("lost the lease of the " + type + " import");
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService heartbeat() {
+        if (heartbeat == null) {
+            heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "import-lease-heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return heartbeat;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+/**
+ * A manual import of one type, queued by {@link ImportJobs}. The import reports its progress through the static
+ * methods, which only have an effect on the thread running a job, so the importers need no reference to it.
+ */
+public class ImportJob {
+    public enum Phase {
+        QUEUED, FETCHING, PARSING, STORING, DONE, FAILED, SKIPPED
+    }
+
+    private static final ThreadLocal<ImportJob> CURRENT = new ThreadLocal<ImportJob>();
+
+    private final String id;
+    private final String type;
+    private final long queued = System.currentTimeMillis();
+    private volatile Phase phase = Phase.QUEUED;
+    private volatile long started;
+    private volatile long finished;
+    private volatile long records;
+    private volatile String error;
+    private volatile boolean failed;
+
+    ImportJob(String id, String type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    /**
+     * Sets the phase of the job run by this thread, if any.
+     */
+    public static void progress(Phase phase) {
+        ImportJob job = CURRENT.get();
+        if (job != null) {
+            job.phase = phase;
+        }
+    }
+
+    /**
+     * Sets the phase and the number of records processed so far of the job run by this thread, if any.
+     */
+    public static void progress(Phase phase, long records) {
+        ImportJob job = CURRENT.get();
+        if (job != null) {
+            job.phase = phase;
+            job.records = records;
+        }
+    }
+
+    /**
+     * @return the job run by this thread, or null. Threads started by the import report to the job through it
+     */
+    public static ImportJob current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks the job run by this thread, if any, as failed. For an import that records its failure instead of
+     * throwing it, the job runs the imports that follow and then ends as failed with the first error.
+     */
+    public static void failed(String error) {
+        ImportJob job = CURRENT.get();
+        if (job != null && !job.failed) {
+            job.error = error;
+            job.failed = true;
+        }
+    }
+
+    /**
+     * Sets the number of records stored so far, from any thread of the import.
+     */
+    public void stored(long records) {
+        this.phase = Phase.STORING;
+        this.records = records;
+    }
+
+    void run(ImportExecutor importExecutor) {
+        CURRENT.set(this);
+        started = System.currentTimeMillis();
+        try {
+            phase = Phase.FETCHING;
+            importExecutor.runManual(type);
+            if (failed) {
+                phase = Phase.FAILED;
+            } else if (phase != Phase.SKIPPED) {
+                phase = Phase.DONE;
+            }
+        } catch (RuntimeException e) {
+            if (!failed) {
+                error = e.getMessage();
+            }
+            phase = Phase.FAILED;
+        } finally {
+            finished = System.currentTimeMillis();
+            CURRENT.remove();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public boolean isActive() {
+        Phase current = phase;
+        return current != Phase.DONE && current != Phase.FAILED && current != Phase.SKIPPED;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the milliseconds from the start of the job until it finished or until now, 0 while it is queued
+     */
+    public long getElapsedMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+    }
+
+    /**
+     * @return the records processed per second since the start of the job
+     */
+    public long getThroughput() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : records * 1000 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportJob [id=" + id + ", type=" + type + ", phase=" + phase + ", records=" + records
+                + ", elapsedMillis=" + getElapsedMillis() + ", recordsPerSecond=" + getThroughput() + ", queuedMillis="
+                + ((started != 0 ? started : System.currentTimeMillis()) - queued)
+                + (error != null ? ", error=" + error : "") + "]";
+    }
+}
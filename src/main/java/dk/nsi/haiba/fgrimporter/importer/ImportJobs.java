@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * Queue of manual imports. A manual start returns a job at once and the import runs on the manualImportExecutor, so
+ * the request that started it is not held for the download, parse and load. Starting a type that is already queued or
+ * running returns the job of that run, so a refreshed page does not start a second import. The finished jobs are
+ * kept for their status, the oldest are forgotten beyond {@link #HISTORY}.
+ */
+public class ImportJobs {
+    private static Log log = new Log(Logger.getLogger(ImportJobs.class));
+
+    static final int HISTORY = 20;
+
+    @Autowired
+    ImportExecutor importExecutor;
+
+    @Autowired
+    @Qualifier("manualImportExecutor")
+    TaskExecutor taskExecutor;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, ImportJob> jobs = new LinkedHashMap<String, ImportJob>();
+
+    /**
+     * Queues a manual import of the type.
+     *
+     * @return the new job, or the queued or running job of the type
+     */
+    public ImportJob submit(String type) {
+        final ImportJob job;
+        synchronized (jobs) {
+            for (ImportJob existing : jobs.values()) {
+                if (existing.getType().equals(type) && existing.isActive()) {
+                    log.debug("manual " + type + " import is already queued or running as job " + existing.getId());
+                    return existing;
+                }
+            }
+            job = new ImportJob(type + "-" + ids.incrementAndGet(), type);
+            jobs.put(job.getId(), job);
+            forgetFinished();
+        }
+        log.debug("queued manual " + type + " import as job " + job.getId());
+        taskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                job.run(importExecutor);
+                log.debug("finished " + job);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * @return the job with the id, or null if there is none or it has been forgotten
+     */
+    public ImportJob get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * @return the last job of the type that is still known, or null
+     */
+    public ImportJob latest(String type) {
+        ImportJob latest = null;
+        synchronized (jobs) {
+            for (ImportJob job : jobs.values()) {
+                if (job.getType().equals(type)) {
+                    latest = job;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private void forgetFinished() {
+        int excess = jobs.size() - HISTORY;
+        for (Iterator<ImportJob> i = jobs.values().iterator(); i.hasNext() && excess > 0;) {
+            if (!i.next().isActive()) {
+                i.remove();
+                excess--;
+            }
+        }
+    }
+}
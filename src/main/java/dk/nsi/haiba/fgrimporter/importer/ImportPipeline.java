@@ -0,0 +1,51 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+/**
+ * The stages of one pipelined import of a file: the download, the parser on the importing thread and the database
+ * writer, with the bounded queues between them. Each stage is throttled by the slowest one after it, so the metrics
+ * show which stage the import waits for.
+ */
+class ImportPipeline {
+    final StageMetrics fetch = new StageMetrics("fetch");
+    final StageMetrics parse = new StageMetrics("parse");
+    final StageMetrics persist = new StageMetrics("persist");
+    private final long start = System.nanoTime();
+
+    /**
+     * Called on the parsing thread when the parse is done, the parser does not time its own work.
+     */
+    void parsed() {
+        parse.finish(System.nanoTime() - start);
+    }
+
+    @Override
+    public String toString() {
+        return fetch + ", " + parse + ", " + persist;
+    }
+}
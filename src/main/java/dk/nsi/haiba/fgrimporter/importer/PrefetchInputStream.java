@@ -0,0 +1,214 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * Reads a stream ahead on a fetch thread of its own, so a download and the parse of what has arrived run at the same
+ * time. The fetched bytes are handed to the reader in chunks through a bounded queue: when the parser falls behind the
+ * fetch thread blocks, so at most <code>capacity</code> chunks are held in memory.
+ * <p/>
+ * A failure to read the source is rethrown to the reader, after the chunks read before it. {@link #close()} stops the
+ * fetch thread, it does not close the source.
+ */
+public class PrefetchInputStream extends InputStream {
+    private static Log log = new Log(Logger.getLogger(PrefetchInputStream.class));
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> queue;
+    private final StageMetrics fetch;
+    private final StageMetrics reader;
+    private final Thread fetcher;
+    private volatile IOException failure;
+    private byte[] chunk;
+    private int position;
+    private boolean ended;
+
+    /**
+     * @param fetch the metrics of the fetch thread
+     * @param reader the metrics of the thread reading this stream, its waits for chunks are added
+     */
+    public PrefetchInputStream(InputStream source, int capacity, String name, StageMetrics fetch,
+            StageMetrics reader) {
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<byte[]>(capacity);
+        this.fetch = fetch;
+        this.reader = reader;
+        this.fetcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        }, "fetch-" + name);
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk != null ? chunk.length - position : 0;
+    }
+
+    /**
+     * Reads and discards the rest of the stream, so the source has been read to its end.
+     */
+    public void drain() throws IOException {
+        while (fill()) {
+            position = chunk.length;
+        }
+    }
+
+    /**
+     * Stops the fetch thread and discards the chunks not read.
+     */
+    @Override
+    public void close() {
+        ended = true;
+        fetcher.interrupt();
+        queue.clear();
+        try {
+            fetcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /*
+     * Makes sure there are bytes left in the current chunk, false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        while (!ended && (chunk == null || position == chunk.length)) {
+            long start = System.nanoTime();
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for " + fetcher.getName());
+            } finally {
+                reader.waitedForInput(System.nanoTime() - start);
+            }
+            position = 0;
+            if (chunk == END) {
+                ended = true;
+                chunk = null;
+            }
+        }
+        if (ended && failure != null) {
+            throw failure;
+        }
+        return !ended;
+    }
+
+    private void prefetch() {
+        try {
+            while (true) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                long start = System.nanoTime();
+                int n = fillBuffer(buffer);
+                fetch.busy(System.nanoTime() - start);
+                if (n > 0) {
+                    put(n == buffer.length ? buffer : Arrays.copyOf(buffer, n));
+                }
+                if (n < buffer.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            log.debug(fetcher.getName() + " interrupted");
+            return;
+        }
+        try {
+            put(END);
+        } catch (InterruptedException e) {
+            log.debug(fetcher.getName() + " interrupted");
+        }
+    }
+
+    /*
+     * Reads until the buffer is full or the source ends, a short count marks the end
+     */
+    private int fillBuffer(byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int read = source.read(buffer, n, buffer.length - n);
+            if (read == -1) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+
+    private void put(byte[] chunk) throws InterruptedException {
+        long start = System.nanoTime();
+        queue.put(chunk);
+        fetch.waitedForOutput(System.nanoTime() - start);
+        if (chunk != END) {
+            fetch.handedOn(queue.size());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
+import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+
+/**
+ * Writes parsed records to a {@link SKSDAO} in batches of <code>batchSize</code>, all with the same created
+ * timestamp. Unless the DAO is loading a shadow table, the table is cleared just before the first batch is written,
+ * so an empty parse leaves the existing content untouched.
+ * <p/>
+ * With a transaction template each batch is written and committed in a transaction of its own, together with the
+ * clearing of the table for the first batch, and the time spent writing and committing each batch is recorded.
+ * <p/>
+ * The records stored so far are reported to the {@link ImportJob} of the thread that created the sink after each
+ * batch, also when the batches are written on a thread of their own. Before each batch the lease of the run of that
+ * thread, if any, is checked, see {@link ImportGuard}.
+ */
+public class SKSDAOSink<T extends SKSLine> implements RecordSink<T> {
+    private static Log log = new Log(Logger.getLogger(SKSDAOSink.class));
+
+    private SKSDAO<T> dao;
+    private int batchSize;
+    private boolean clearTable;
+    private Date created = new Date();
+    private List<T> batch;
+    private long count;
+    private TransactionTemplate transaction;
+    private int chunks;
+    private long writeMillis;
+    private long commitMillis;
+    private long maxCommitMillis;
+    private final ImportJob job = ImportJob.current();
+    private final ImportGuard.Lease lease = ImportGuard.currentLease();
+
+    public SKSDAOSink(SKSDAO<T> dao, int batchSize, boolean clearTable) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.clearTable = clearTable;
+        this.batch = new ArrayList<T>(batchSize);
+    }
+
+    public void setTransactionTemplate(TransactionTemplate transaction) {
+        this.transaction = transaction;
+    }
+
+    @Override
+    public void add(T t) {
+        batch.add(t);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the rows of the columns in batches of <code>batchSize</code>, as if their records were added one by one.
+     */
+    public void addColumns(final SKSColumns columns) {
+        flush();
+        for (int from = 0; from < columns.size(); from += batchSize) {
+            final int offset = from;
+            final int to = Math.min(columns.size(), from + batchSize);
+            commit(to - from, new Runnable() {
+                @Override
+                public void run() {
+                    dao.saveColumns(columns, offset, to, created);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (transaction != null && chunks > 0) {
+            log.info("stored " + count + " records in " + chunks + " transactions, writing took " + writeMillis
+                    + " ms, commits took " + commitMillis + " ms, " + (commitMillis / chunks) + " ms on average and "
+                    + maxCommitMillis + " ms at most");
+        } else {
+            log.debug("stored " + count + " records");
+        }
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        commit(batch.size(), new Runnable() {
+            @Override
+            public void run() {
+                dao.saveEntities(batch, created);
+            }
+        });
+        batch.clear();
+    }
+
+    /*
+     * Writes a batch of rows, in a transaction of its own if there is a transaction template
+     */
+    private void commit(int rows, final Runnable write) {
+        if (lease != null) {
+            lease.check();
+        }
+        if (transaction == null) {
+            clearAndWrite(write);
+        } else {
+            final long[] written = new long[1];
+            long start = System.currentTimeMillis();
+            transaction.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    clearAndWrite(write);
+                    written[0] = System.currentTimeMillis();
+                }
+            });
+            long committed = System.currentTimeMillis();
+            chunks++;
+            writeMillis += written[0] - start;
+            commitMillis += committed - written[0];
+            maxCommitMillis = Math.max(maxCommitMillis, committed - written[0]);
+            log.debug("transaction " + chunks + " of " + rows + " records written in " + (written[0] - start)
+                    + " ms, committed in " + (committed - written[0]) + " ms");
+        }
+        count += rows;
+        if (job != null) {
+            job.stored(count);
+        }
+    }
+
+    private void clearAndWrite(Runnable write) {
+        if (count == 0 && clearTable) {
+            dao.clearTable();
+        }
+        write.run();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of batches committed in transactions of their own
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    public long getCommitMillis() {
+        return commitMillis;
+    }
+
+    public long getMaxCommitMillis() {
+        return maxCommitMillis;
+    }
+}
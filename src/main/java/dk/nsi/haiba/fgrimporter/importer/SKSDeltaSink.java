@@ -0,0 +1,67 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+
+/**
+ * Collects the records of a delta file for {@link SKSDAO#applyDelta(Collection, java.util.Date)}. A delta may hold
+ * more than one line for the same code, type and valid from, e.g. a create followed by an update, then the last line
+ * wins. That leaves at most one operation per row, so the DAO can apply deletes and updates in any order.
+ */
+public class SKSDeltaSink<T extends SKSLine> implements RecordSink<T> {
+    private final Map<String, T> records = new LinkedHashMap<String, T>();
+    private long lines;
+
+    @Override
+    public void add(T t) {
+        String key = t.getType() + '\t' + t.getCode() + '\t' + t.getValidFrom().getTime();
+        // remove first, so the record takes the position of its last line
+        records.remove(key);
+        records.put(key, t);
+        lines++;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public Collection<T> getRecords() {
+        return new ArrayList<T>(records.values());
+    }
+
+    public long getLines() {
+        return lines;
+    }
+}
@@ -28,20 +28,33 @@ package dk.nsi.haiba.fgrimporter.importer;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 
 import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
 import dk.nsi.haiba.fgrimporter.model.SKSLine;
-import dk.nsi.haiba.fgrimporter.parser.Parser;
+import dk.nsi.haiba.fgrimporter.parser.FixedWidthScanner;
 import dk.nsi.haiba.fgrimporter.parser.ParserException;
-import dk.nsi.haiba.fgrimporter.util.Util;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+import dk.nsi.haiba.fgrimporter.parser.RecordTypeTable;
+import dk.nsi.haiba.fgrimporter.parser.StreamParser;
+import dk.nsi.haiba.fgrimporter.util.LineKeySet;
+import dk.nsi.haiba.fgrimporter.util.RecordSet;
+import dk.nsi.haiba.fgrimporter.util.StringPool;
 
 /**
  * Parser for the SKS register.
@@ -85,39 +98,44 @@ import dk.nsi.haiba.fgrimporter.util.Util;
  * (1,2,3) kun er angivet for entries nyere end 1995. Da vi kun ønsker at indlæse records nyere end 1995 ignoreres alle
  * records hvor operationskode ikke er angivet.
  */
-public class SKSParser<T extends SKSLine> implements Parser {
+public class SKSParser<T extends SKSLine> implements StreamParser {
     private static Log log = new Log(Logger.getLogger(SKSParser.class));
 
-    private static final int SKS_CODE_START_INDEX = 3;
-    private static final int SKS_CODE_END_INDEX = 23;
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int RANGES_IN_FLIGHT_PER_THREAD = 2;
 
-    private static final int CODE_TEXT_START_INDEX = 47;
+    private static final int STRING_POOL_SIZE = 16384;
+    // the text field is read up to 60 characters
+    private static final int STRING_POOL_MAX_LENGTH = 60;
 
-    /**
-     * The field is actually 120 characters long. But the specification says only to use the first 60.
-     */
-    private static final int CODE_TEXT_END_INDEX = 107;
-
-    private static final int ENTRY_TYPE_START_INDEX = 0;
-    private static final int ENTRY_TYPE_END_INDEX = 3;
-
-    private static final char OPERATION_CODE_NONE = ' ';
-    private static final char OPERATION_CODE_CREATE = '1';
-    private static final char OPERATION_CODE_UPDATE = '3';
-
-    private static final int OPERATION_CODE_INDEX = 187;
-
-    private static final String FILE_ENCODING = "ISO8859-15";
     private Set<T> entities;
+    private long duplicates;
     private Set<String> parsablePrefixes;
 
     private Class<T> sksClass;
 
     private boolean aImportAllLines = true;
 
+    private boolean delta;
+
+    private final StringPool strings = new StringPool(STRING_POOL_SIZE, STRING_POOL_MAX_LENGTH);
+
+    private volatile Enricher<? super T> enricher;
+
+    @Value("${import.parse.threads:1}")
+    private int parseThreads = 1;
+
+    private Executor executor;
+
     public SKSParser(Class<T> clazz, String[] parsablePrefixes) {
         sksClass = clazz;
-        this.parsablePrefixes = new HashSet<String>(Arrays.asList(parsablePrefixes));
+        this.parsablePrefixes = new HashSet<String>();
+        for (String prefix : parsablePrefixes) {
+            // a record type is the first three characters of a line
+            if (prefix.length() == RecordTypeTable.TYPE_LENGTH) {
+                this.parsablePrefixes.add(prefix);
+            }
+        }
     }
 
     public boolean isImportAllLines() {
@@ -128,101 +146,315 @@ public class SKSParser<T extends SKSLine> implements Parser {
         aImportAllLines = importAllLines;
     }
 
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Parses the file as a delta, the records carry the operation code of their line. See
+     * {@link SKSRouter#setDelta(boolean)}.
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    /**
+     * Files are parsed in ranges on this many threads of the executor. Streams are always parsed on the calling
+     * thread.
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * The executor parsing the ranges of a file, shared by the parsers. Without one files are parsed on the calling
+     * thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Enricher<? super T> getEnricher() {
+        return enricher;
+    }
+
+    /**
+     * Every record is handed to the enricher before it is collected or passed to a sink, null for none. Records
+     * parsed into columns are not enriched.
+     */
+    public void setEnricher(Enricher<? super T> enricher) {
+        this.enricher = enricher;
+    }
+
+    /**
+     * @return the distinct records of the last parse, see {@link SKSLine#equals(Object)}
+     */
     public Set<T> getEntities() {
         return entities;
     }
 
+    /**
+     * @return the pool of the record types and texts, shared by all parses of this parser
+     */
+    public StringPool getStringPool() {
+        return strings;
+    }
+
+    /**
+     * @return the number of records of the last parse that were dropped, because an equal record came before them
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
     @Override
     public void process(File file, String identifier) {
-        entities = new HashSet<T>();
+        entities = new RecordSet<T>();
+        DistinctSink distinct = new DistinctSink(entities, null);
+        parse(file, distinct);
+        duplicates = distinct.duplicates;
+        log.debug("Processed " + entities.size() + " lines, " + duplicates + " duplicates");
+    }
 
-        try {
-            LineIterator lines = null;
-            try {
-                lines = FileUtils.lineIterator(file, FILE_ENCODING);
+    @Override
+    public void process(InputStream is, String name, String identifier) {
+        entities = new RecordSet<T>();
+        DistinctSink distinct = new DistinctSink(entities, null);
+        parse(is, distinct);
+        duplicates = distinct.duplicates;
+        log.debug("Processed " + entities.size() + " lines, " + duplicates + " duplicates");
+    }
 
-                innerParse(lines);
+    /**
+     * Parses the file and hands each record to the sink as soon as it is parsed, instead of collecting them in
+     * {@link #getEntities()}. The sink is not closed, that is left to the caller.
+     * <p/>
+     * The file is memory mapped and the fields are decoded from their byte positions, see {@link SKSRouter}. Records
+     * equal to one handed to the sink before are dropped, except in delta mode, where repeated lines are operations of
+     * their own. Only the keys of the records are kept for that, not the records.
+     *
+     * @return the number of records handed to the sink
+     */
+    public long process(File file, RecordSink<T> sink) {
+        if (delta) {
+            return parse(file, sink);
+        }
+        DistinctSink distinct = new DistinctSink(new LineKeySet(), sink);
+        long count = parse(file, distinct) - distinct.duplicates;
+        duplicates = distinct.duplicates;
+        return count;
+    }
 
-                log.debug("Processed " + entities.size() + " lines");
+    /**
+     * As {@link #process(File, RecordSink)}, reading the lines from the stream. Neither the stream nor the sink is
+     * closed.
+     */
+    public long process(InputStream is, RecordSink<T> sink) {
+        if (delta) {
+            return parse(is, sink);
+        }
+        DistinctSink distinct = new DistinctSink(new LineKeySet(), sink);
+        long count = parse(is, distinct) - distinct.duplicates;
+        duplicates = distinct.duplicates;
+        return count;
+    }
 
-            } catch (IOException e) {
-                throw new ParserException(e);
-            } catch (Exception e) {
-                // the persister throws these. Let's make them unchecked from here on at least
-                throw new ParserException(e);
-            } finally {
-                LineIterator.closeQuietly(lines);
-            }
-        } catch (RuntimeException e) {
+    /**
+     * Parses the file into columns instead of records, see {@link SKSColumns}, on the calling thread. Equal lines are
+     * stored once, the number dropped is {@link #getDuplicates()}. Not for delta files, columns do not hold the
+     * operation codes.
+     */
+    public SKSColumns processColumns(File file) {
+        SKSColumns columns = new SKSColumns();
+        columnRouter(columns).process(file);
+        duplicates = columns.getDuplicates();
+        return columns;
+    }
+
+    /**
+     * As {@link #processColumns(File)}, reading the lines from the stream. The stream is not closed.
+     */
+    public SKSColumns processColumns(InputStream is) {
+        SKSColumns columns = new SKSColumns();
+        columnRouter(columns).process(is);
+        duplicates = columns.getDuplicates();
+        return columns;
+    }
+
+    private long parse(File file, RecordSink<T> sink) {
+        if (parseThreads <= 1 || executor == null) {
+            return router(sink).process(file);
+        }
+        try {
+            return parallelParse(FixedWidthScanner.map(file, SKSRouter.FILE_ENCODING), sink);
+        } catch (IOException e) {
+            throw new ParserException(e);
+        } catch (ParserException e) {
             throw e;
+        } catch (Exception e) {
+            // the persister throws these. Let's make them unchecked from here on at least
+            throw new ParserException(e);
         }
     }
 
-    private void innerParse(Iterator<String> lines) {
-        while (lines.hasNext()) {
-            try {
-                T t = parseLine(lines.next());
-                if (t != null) {
-                    entities.add(t);
-                }
-            } catch (InstantiationException e) {
-                log.error("", e);
-            } catch (IllegalAccessException e) {
-                log.error("", e);
-            }
-        }
+    private long parse(InputStream is, RecordSink<T> sink) {
+        return router(sink).process(is);
     }
 
-    private T parseLine(String line) throws InstantiationException, IllegalAccessException {
-        // Determine the record type.
-        //
-        String recordType = line.substring(ENTRY_TYPE_START_INDEX, ENTRY_TYPE_END_INDEX);
+    /*
+     * A router with the single route of this parser
+     */
+    private SKSRouter router(RecordSink<? super T> sink) {
+        SKSRouter router = new SKSRouter();
+        router.setImportAllLines(aImportAllLines);
+        router.setDelta(delta);
+        router.setStringPool(strings);
+        Enricher<? super T> current = enricher;
+        if (current != null) {
+            return router.route(sksClass, new EnrichingSink(current, sink), parsablePrefixes);
+        }
+        return router.route(sksClass, sink, parsablePrefixes);
+    }
 
-        if (!parsable(recordType)) {
-            log.debug("Ignored record type. line=" + line);
-            return null;
+    private SKSRouter columnRouter(SKSColumns columns) {
+        if (delta) {
+            throw new IllegalStateException("delta files are not parsed into columns");
         }
+        SKSRouter router = new SKSRouter();
+        router.setImportAllLines(aImportAllLines);
+        return router.route(columns, parsablePrefixes);
+    }
 
-        // Since the old record types do not have a operation code (and we are not
-        // interested in those records) we can ignore the line.
-        //
-        if (!aImportAllLines && (line.length() < OPERATION_CODE_INDEX + 1)) {
-            return null;
+    /*
+     * Parses ranges of the file on the parse executor. The records of each range are collected and handed to the
+     * sink range by range in file order, so the sink sees the same records in the same order as a single pass. At
+     * most RANGES_IN_FLIGHT_PER_THREAD ranges per thread are parsed or waiting for the sink, the next range is
+     * submitted when one is handed to the sink, so a slow sink holds back the parse instead of collecting the file
+     */
+    private long parallelParse(FixedWidthScanner scanner, RecordSink<T> sink) throws Exception {
+        // more ranges than threads, so the sink is fed while later ranges are parsed
+        Iterator<FixedWidthScanner> ranges = scanner.split(parseThreads * RANGES_PER_THREAD).iterator();
+        LinkedList<Future<List<T>>> inFlight = new LinkedList<Future<List<T>>>();
+        try {
+            long count = 0;
+            while (ranges.hasNext() || !inFlight.isEmpty()) {
+                while (ranges.hasNext() && inFlight.size() < parseThreads * RANGES_IN_FLIGHT_PER_THREAD) {
+                    inFlight.add(submit(ranges.next()));
+                }
+                List<T> records;
+                try {
+                    records = inFlight.removeFirst().get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                for (T t : records) {
+                    sink.add(t);
+                }
+                count += records.size();
+            }
+            return count;
+        } finally {
+            for (Future<List<T>> range : inFlight) {
+                range.cancel(true);
+            }
         }
+    }
 
-        // Determine the operation code.
-        //
-        char code = line.charAt(OPERATION_CODE_INDEX);
+    private Future<List<T>> submit(final FixedWidthScanner range) {
+        FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                final List<T> records = new ArrayList<T>();
+                router(new RecordSink<T>() {
+                    @Override
+                    public void add(T t) {
+                        records.add(t);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                }).read(range);
+                return records;
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
 
-        if (aImportAllLines || code == OPERATION_CODE_CREATE || code == OPERATION_CODE_UPDATE) {
-            // Create and update are handled the same way.
+    /**
+     * Adds values from another source to the parsed records.
+     */
+    public interface Enricher<T> {
+        void enrich(T record);
+    }
 
-            T t = sksClass.newInstance();
-            t.setType(recordType);
-            t.setCode(line.substring(SKS_CODE_START_INDEX, SKS_CODE_END_INDEX).trim());
+    private class EnrichingSink implements RecordSink<T> {
+        private final Enricher<? super T> enricher;
+        private final RecordSink<? super T> sink;
 
-            t.setValidFrom(Util.parseValidFrom(line));
-            t.setValidTo(Util.parseValidTo(line));
+        EnrichingSink(Enricher<? super T> enricher, RecordSink<? super T> sink) {
+            this.enricher = enricher;
+            this.sink = sink;
+        }
 
-            t.setText(line.substring(CODE_TEXT_START_INDEX, CODE_TEXT_END_INDEX).trim());
+        @Override
+        public void add(T t) {
+            enricher.enrich(t);
+            sink.add(t);
+        }
 
-            return t;
-        } else if (code == OPERATION_CODE_NONE) {
-            return null;
-        } else {
-            throw new ParserException("SKS parser encountered an unknown operation code in line " + line + ". code="
-                    + code);
+        @Override
+        public void close() {
         }
     }
 
-    private boolean parsable(String recordType) {
-        boolean returnValue = false;
-        for (String parsableType : parsablePrefixes) {
-            if (parsableType.equalsIgnoreCase(recordType)) {
-                returnValue = true;
-                break;
+    /*
+     * Hands the records not seen before on to the sink, if any, and counts the others
+     */
+    private class DistinctSink implements RecordSink<T> {
+        private final Set<T> seen;
+        private final LineKeySet keys;
+        private final RecordSink<T> sink;
+        private long duplicates;
+
+        /*
+         * Collects the records in seen
+         */
+        DistinctSink(Set<T> seen, RecordSink<T> sink) {
+            this.seen = seen;
+            this.keys = null;
+            this.sink = sink;
+        }
+
+        /*
+         * Keeps only the keys of the records handed on
+         */
+        DistinctSink(LineKeySet keys, RecordSink<T> sink) {
+            this.seen = null;
+            this.keys = keys;
+            this.sink = sink;
+        }
+
+        @Override
+        public void add(T t) {
+            if (!(seen != null ? seen.add(t) : keys.add(t))) {
+                duplicates++;
+            } else if (sink != null) {
+                sink.add(t);
             }
         }
-        return returnValue;
+
+        @Override
+        public void close() {
+        }
     }
 }
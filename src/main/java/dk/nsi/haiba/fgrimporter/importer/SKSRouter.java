@@ -0,0 +1,315 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.fgrimporter.log.Log;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.parser.FixedWidthScanner;
+import dk.nsi.haiba.fgrimporter.parser.ParserException;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+import dk.nsi.haiba.fgrimporter.parser.RecordTypeTable;
+import dk.nsi.haiba.fgrimporter.util.DateCodec;
+import dk.nsi.haiba.fgrimporter.util.StringPool;
+
+/**
+ * Reads an SKS file once and hands each record to the sinks routed for its record type, so one pass over e.g.
+ * SKScomplete can feed every table derived from it. The record type of a line is packed into an int and looked up in a
+ * {@link RecordTypeTable}, lines of types without a route are skipped without decoding anything.
+ * <p/>
+ * The fields of a line are decoded once, each route gets its own instance of its class. See {@link SKSParser} for the
+ * file format.
+ */
+public class SKSRouter {
+    private static Log log = new Log(Logger.getLogger(SKSRouter.class));
+
+    static final Charset FILE_ENCODING = Charset.forName("ISO8859-15");
+
+    private static final int SKS_CODE_START_INDEX = 3;
+    private static final int SKS_CODE_END_INDEX = 23;
+
+    private static final int CODE_TEXT_START_INDEX = 47;
+
+    /**
+     * The field is actually 120 characters long. But the specification says only to use the first 60.
+     */
+    private static final int CODE_TEXT_END_INDEX = 107;
+
+    private static final int ENTRY_TYPE_START_INDEX = 0;
+    private static final int ENTRY_TYPE_END_INDEX = 3;
+
+    private static final int OPERATION_CODE_INDEX = 187;
+
+    private static final int VALID_FROM_INDEX = 23;
+    private static final int VALID_TO_INDEX = 39;
+
+    private static final char SKIP = 0;
+
+    private final RecordTypeTable<Route<?>[]> routes = new RecordTypeTable<Route<?>[]>();
+
+    private boolean aImportAllLines = true;
+
+    private boolean delta;
+
+    private StringPool strings;
+
+    public boolean isImportAllLines() {
+        return aImportAllLines;
+    }
+
+    public void setImportAllLines(boolean importAllLines) {
+        aImportAllLines = importAllLines;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * In delta mode lines with the operation codes 1, 2 and 3 are routed with their code, see
+     * {@link SKSLine#getOperation()}, and lines without one are skipped, regardless of importAllLines.
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Record types and texts of the records are taken from the pool, so the text shared by the lines of a code is held
+     * once. Without a pool every record gets its own Strings.
+     */
+    public void setStringPool(StringPool strings) {
+        this.strings = strings;
+    }
+
+    /**
+     * Routes the records of the given types to the sink as instances of clazz. A record type may be routed to more than
+     * one sink. Types that are not three characters long can never match a line and are ignored.
+     */
+    public <T extends SKSLine> SKSRouter route(Class<T> clazz, RecordSink<? super T> sink,
+            Collection<String> recordTypes) {
+        return add(new Route<T>(clazz, sink, null), recordTypes);
+    }
+
+    /**
+     * Routes the records of the given types to the columns, without creating an object per record. Operation codes are
+     * not kept in columns.
+     */
+    public SKSRouter route(SKSColumns columns, Collection<String> recordTypes) {
+        return add(new Route<SKSLine>(null, null, columns), recordTypes);
+    }
+
+    private SKSRouter add(Route<?> route, Collection<String> recordTypes) {
+        for (String type : recordTypes) {
+            if (type.length() != ENTRY_TYPE_END_INDEX - ENTRY_TYPE_START_INDEX) {
+                continue;
+            }
+            Route<?>[] existing = routes.get(type);
+            if (existing == null) {
+                routes.put(type, new Route<?>[] { route });
+            } else {
+                Route<?>[] extended = new Route<?>[existing.length + 1];
+                System.arraycopy(existing, 0, extended, 0, existing.length);
+                extended[existing.length] = route;
+                routes.put(type, extended);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Reads the memory mapped file and hands the records to their sinks. The sinks are not closed.
+     *
+     * @return the number of records handed to the sinks
+     */
+    public long process(File file) {
+        try {
+            return read(FixedWidthScanner.map(file, FILE_ENCODING));
+        } catch (IOException e) {
+            throw new ParserException(e);
+        } catch (ParserException e) {
+            throw e;
+        } catch (Exception e) {
+            // the persister throws these. Let's make them unchecked from here on at least
+            throw new ParserException(e);
+        }
+    }
+
+    /**
+     * As {@link #process(File)}, reading the lines from the stream. The stream is not closed.
+     */
+    public long process(InputStream is) {
+        try {
+            return read(FixedWidthScanner.read(is, FILE_ENCODING));
+        } catch (IOException e) {
+            throw new ParserException(e);
+        } catch (ParserException e) {
+            throw e;
+        } catch (Exception e) {
+            // the persister throws these. Let's make them unchecked from here on at least
+            throw new ParserException(e);
+        }
+    }
+
+    /**
+     * Reads the remaining lines of the scanner, e.g. a range of a split file.
+     *
+     * @return the number of records handed to the sinks
+     */
+    public long read(FixedWidthScanner line) throws IOException {
+        long count = 0;
+        long ignored = 0;
+        while (line.next()) {
+            Route<?>[] targets = routes.get(line.packLowerCase(ENTRY_TYPE_START_INDEX, ENTRY_TYPE_END_INDEX
+                    - ENTRY_TYPE_START_INDEX));
+            if (targets == null) {
+                ignored++;
+                continue;
+            }
+            char operation = operation(line);
+            if (operation == SKIP) {
+                continue;
+            }
+            int validFrom = parseEpochDay(line, VALID_FROM_INDEX);
+            // ValidTo is inclusive, add a day
+            int validTo = parseEpochDay(line, VALID_TO_INDEX) + 1;
+            // the Strings are decoded once, for the first route that creates records
+            String type = null;
+            String code = null;
+            String text = null;
+            for (Route<?> route : targets) {
+                if (route.columns != null) {
+                    if (route.columns.add(line.field(ENTRY_TYPE_START_INDEX, ENTRY_TYPE_END_INDEX),
+                            line.trimmedField(SKS_CODE_START_INDEX, SKS_CODE_END_INDEX),
+                            line.trimmedField(CODE_TEXT_START_INDEX, CODE_TEXT_END_INDEX), validFrom, validTo)) {
+                        count++;
+                    }
+                    continue;
+                }
+                if (type == null) {
+                    type = intern(line.field(ENTRY_TYPE_START_INDEX, ENTRY_TYPE_END_INDEX));
+                    code = line.trimmed(SKS_CODE_START_INDEX, SKS_CODE_END_INDEX);
+                    text = intern(line.trimmedField(CODE_TEXT_START_INDEX, CODE_TEXT_END_INDEX));
+                }
+                try {
+                    route.add(type, code, DateCodec.toDate(validFrom), DateCodec.toDate(validTo), text, operation);
+                    count++;
+                } catch (InstantiationException e) {
+                    log.error("", e);
+                } catch (IllegalAccessException e) {
+                    log.error("", e);
+                } catch (InvocationTargetException e) {
+                    log.error("", e);
+                }
+            }
+        }
+        log.debug("Ignored " + ignored + " lines of record types that are not routed");
+        return count;
+    }
+
+    private String intern(CharSequence field) {
+        return strings != null ? strings.intern(field) : field.toString();
+    }
+
+    /*
+     * The operation code of the line, or SKIP if the line is not to be imported
+     */
+    private char operation(FixedWidthScanner line) {
+        // Since the old record types do not have a operation code (and we are not
+        // interested in those records) we can ignore the line.
+        //
+        if ((delta || !aImportAllLines) && (line.length() < OPERATION_CODE_INDEX + 1)) {
+            return SKIP;
+        }
+
+        // Determine the operation code.
+        //
+        char code = line.charAt(OPERATION_CODE_INDEX);
+
+        if (delta && code == SKSLine.OPERATION_DELETE) {
+            return code;
+        } else if ((aImportAllLines && !delta) || code == SKSLine.OPERATION_CREATE
+                || code == SKSLine.OPERATION_UPDATE) {
+            // Create and update are handled the same way.
+            return code;
+        } else if (code == SKSLine.OPERATION_NONE) {
+            return SKIP;
+        } else {
+            throw new ParserException("SKS parser encountered an unknown operation code in line " + line.line()
+                    + ". code=" + code);
+        }
+    }
+
+    /*
+     * The epoch day of the yyyyMMdd date at index
+     */
+    private static int parseEpochDay(FixedWidthScanner line, int index) {
+        return DateCodec.epochDay(line.digits(index, index + 4), line.digits(index + 4, index + 6),
+                line.digits(index + 6, index + 8));
+    }
+
+    /*
+     * Either creates records of clazz for the sink or appends to the columns
+     */
+    private static class Route<T extends SKSLine> {
+        private final Constructor<T> constructor;
+        private final RecordSink<? super T> sink;
+        private final SKSColumns columns;
+
+        Route(Class<T> clazz, RecordSink<? super T> sink, SKSColumns columns) {
+            try {
+                this.constructor = clazz != null ? clazz.getConstructor() : null;
+            } catch (NoSuchMethodException e) {
+                throw new ParserException(clazz + " has no public no-argument constructor", e);
+            }
+            this.sink = sink;
+            this.columns = columns;
+        }
+
+        void add(String type, String code, Date validFrom, Date validTo, String text, char operation)
+                throws InstantiationException, IllegalAccessException, InvocationTargetException {
+            T t = constructor.newInstance();
+            t.setType(type);
+            t.setCode(code);
+            t.setValidFrom(validFrom);
+            t.setValidTo(validTo);
+            t.setText(text);
+            t.setOperation(operation);
+            sink.add(t);
+        }
+    }
+}
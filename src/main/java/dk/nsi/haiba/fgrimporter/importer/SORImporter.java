@@ -31,12 +31,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -44,10 +47,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.xml.sax.SAXException;
 
 import dk.nsi.haiba.fgrimporter.dao.SORDAO;
+import dk.nsi.haiba.fgrimporter.dao.TableDiff;
 import dk.nsi.haiba.fgrimporter.model.SORDataSets;
 import dk.nsi.haiba.fgrimporter.model.SOREventHandler;
 import dk.nsi.haiba.fgrimporter.parser.Parser;
 import dk.nsi.haiba.fgrimporter.parser.ParserException;
+import dk.nsi.haiba.fgrimporter.parser.StreamParser;
+import dk.nsi.haiba.fgrimporter.status.ImportStatusRepository;
+import dk.nsi.haiba.fgrimporter.util.StaxPump;
 import dk.sdsd.nsp.slalog.api.SLALogItem;
 import dk.sdsd.nsp.slalog.api.SLALogger;
 
@@ -56,44 +63,113 @@ import dk.sdsd.nsp.slalog.api.SLALogger;
  * <p/>
  * SOR is an acronym for 'Sundhedsvæsenets Organisationsregister'.
  */
-public class SORImporter implements Parser {
+public class SORImporter implements StreamParser {
     private static final Logger logger = Logger.getLogger(SORImporter.class);
 
     @Value("${sor.filenameinziptoparse}")
     private String sorFilenameInZipToParse;
 
+    @Value("${import.shadowtable:false}")
+    private boolean shadowTable;
+
+    @Value("${import.diff:false}")
+    private boolean diff;
+
+    @Value("${import.stax:true}")
+    private boolean stax = true;
+
     @Autowired
     private SLALogger slaLogger;
 
     @Autowired
     SORDAO dao;
 
+    @Autowired
+    ImportStatusRepository statusRepo;
+
     @Override
     public void process(File file, String identifier) {
-        SLALogItem slaLogItem = slaLogger.createLogItem("sor.process", "SDM4.sor.process");
-        slaLogItem.setMessageId(identifier);
-        slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, file.getAbsolutePath());
+        SLALogItem slaLogItem = createLogItem(file.getAbsolutePath(), identifier);
         try {
-            long processed = 0;
             MDC.put("filename", file.getName());
-            
-            SORDataSets dataSets = parse(file);
-            dao.clear();
-            dao.saveSygehuse(dataSets.getSygehusDS());
-            processed += dataSets.getSygehusDS().size();
-            dao.saveSygehuseAfdelinger(dataSets.getSygehusAfdelingDS());
-            processed += dataSets.getSygehusAfdelingDS().size();
-
-            MDC.remove("filename");
-            slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, "" + processed);
-            slaLogItem.setCallResultOk();
-            slaLogItem.store();
+            store(parse(file), identifier, slaLogItem);
+        } catch (Exception e) {
+            throw failed(slaLogItem, e);
+        }
+    }
+
+    @Override
+    public void process(InputStream is, String name, String identifier) {
+        SLALogItem slaLogItem = createLogItem(name, identifier);
+        try {
+            MDC.put("filename", name);
+            store(parse(is, name), identifier, slaLogItem);
         } catch (Exception e) {
-            slaLogItem.setCallResultError("SORImporter failed - Cause: " + e.getMessage());
-            slaLogItem.store();
+            throw failed(slaLogItem, e);
+        }
+    }
+
+    private SLALogItem createLogItem(String input, String identifier) {
+        SLALogItem slaLogItem = slaLogger.createLogItem("sor.process", "SDM4.sor.process");
+        slaLogItem.setMessageId(identifier);
+        slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, input);
+        return slaLogItem;
+    }
 
-            throw new ParserException(e);
+    private void store(SORDataSets dataSets, String identifier, SLALogItem slaLogItem) {
+        long start = System.currentTimeMillis();
+        long processed = 0;
+        ImportJob.progress(ImportJob.Phase.STORING);
+        if (diff) {
+            // only the rows that differ from the table are written
+            TableDiff<?> changes = dao.sync(dataSets.getSygehusDS(), dataSets.getSygehusAfdelingDS());
+            statusRepo.importChanges(identifier, changes.getInserts().size(), changes.getUpdates().size(),
+                    changes.getDeleted());
+            processed = dataSets.getSygehusDS().size() + dataSets.getSygehusAfdelingDS().size();
+            ImportJob.progress(ImportJob.Phase.STORING, processed);
+        } else if (shadowTable) {
+            dao.beginShadowLoad();
+            try {
+                processed += save(dataSets);
+                dao.swapShadowTable();
+            } catch (RuntimeException e) {
+                dao.discardShadowLoad();
+                throw e;
+            }
+        } else {
+            dao.clear();
+            processed += save(dataSets);
         }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("stored " + processed + " SOR records in " + (millis / 1000d) + " seconds, "
+                + (processed * 1000L / millis) + " records/s");
+        logger.debug("SOR values " + SOREventHandler.STRINGS);
+        MDC.remove("filename");
+        slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, "" + processed);
+        slaLogItem.setCallResultOk();
+        slaLogItem.store();
+    }
+
+    private ParserException failed(SLALogItem slaLogItem, Exception e) {
+        slaLogItem.setCallResultError("SORImporter failed - Cause: " + e.getMessage());
+        slaLogItem.store();
+
+        return new ParserException(e);
+    }
+
+    public void setStax(boolean stax) {
+        this.stax = stax;
+    }
+
+    private long save(SORDataSets dataSets) {
+        dao.saveSygehuse(dataSets.getSygehusDS());
+        long saved = dataSets.getSygehusDS().size();
+        ImportJob.progress(ImportJob.Phase.STORING, saved);
+        dao.saveSygehuseAfdelinger(dataSets.getSygehusAfdelingDS());
+        saved += dataSets.getSygehusAfdelingDS().size();
+        ImportJob.progress(ImportJob.Phase.STORING, saved);
+        return saved;
     }
 
     public SORDataSets parse(File file) throws SAXException, ParserConfigurationException, IOException {
@@ -113,17 +189,48 @@ public class SORImporter implements Parser {
                 }
             }
         } else if (sorFilenameInZipToParse.equalsIgnoreCase(file.getName())) {
-            returnValue = parse(new FileInputStream(file));
+            InputStream is = new FileInputStream(file);
+            try {
+                returnValue = parse(is);
+            } finally {
+                is.close();
+            }
         }
         return returnValue;
     }
 
+    /**
+     * Parses the data set from a stream, e.g. while it is downloaded. For a zip file the entry named by
+     * sor.filenameinziptoparse is located in the stream, the stream is not closed.
+     */
+    public SORDataSets parse(InputStream is, String name) throws SAXException, ParserConfigurationException,
+            IOException {
+        if (name.toLowerCase().endsWith(".zip")) {
+            ZipInputStream zis = new ZipInputStream(is);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equalsIgnoreCase(sorFilenameInZipToParse)) {
+                    logger.debug("parse: found " + sorFilenameInZipToParse + " in " + name);
+                    return parse(new CloseShieldInputStream(zis));
+                }
+            }
+            logger.warn("not able to find " + sorFilenameInZipToParse + " in zip stream " + name);
+        } else if (sorFilenameInZipToParse.equalsIgnoreCase(name)) {
+            return parse(new CloseShieldInputStream(is));
+        }
+        return null;
+    }
+
     public SORDataSets parse(InputStream is) throws SAXException, ParserConfigurationException, IOException {
         SORDataSets dataSets = new SORDataSets();
         SOREventHandler handler = new SOREventHandler(dataSets);
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        SAXParser parser = factory.newSAXParser();
-        parser.parse(is, handler);
+        if (stax) {
+            StaxPump.parse(is, handler);
+        } else {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            SAXParser parser = factory.newSAXParser();
+            parser.parse(is, handler);
+        }
         return dataSets;
     }
 }
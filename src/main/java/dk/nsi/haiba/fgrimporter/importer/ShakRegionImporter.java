@@ -31,10 +31,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Method;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -44,9 +41,11 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -55,6 +54,10 @@ import dk.nsi.haiba.fgrimporter.dao.SHAKRegionDAO;
 import dk.nsi.haiba.fgrimporter.model.ShakRegion;
 import dk.nsi.haiba.fgrimporter.parser.Parser;
 import dk.nsi.haiba.fgrimporter.parser.ParserException;
+import dk.nsi.haiba.fgrimporter.parser.StreamParser;
+import dk.nsi.haiba.fgrimporter.util.DateCodec;
+import dk.nsi.haiba.fgrimporter.util.PropertyBinder;
+import dk.nsi.haiba.fgrimporter.util.StaxPump;
 import dk.sdsd.nsp.slalog.api.SLALogItem;
 import dk.sdsd.nsp.slalog.api.SLALogger;
 
@@ -63,7 +66,7 @@ import dk.sdsd.nsp.slalog.api.SLALogger;
  * <p/>
  * SOR is an acronym for 'Sundhedsvæsenets Organisationsregister'.
  */
-public class ShakRegionImporter implements Parser {
+public class ShakRegionImporter implements StreamParser {
     private static final Logger logger = Logger.getLogger(ShakRegionImporter.class);
 
     @Autowired
@@ -72,48 +75,88 @@ public class ShakRegionImporter implements Parser {
     @Autowired
     SHAKRegionDAO dao;
 
+    @Value("${import.stax:true}")
+    private boolean stax = true;
+
     @Override
     public void process(File file, String identifier) {
-        SLALogItem slaLogItem = slaLogger.createLogItem("shakregion.process", "SDM4.shakregion.process");
-        slaLogItem.setMessageId(identifier);
-        slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, file.getAbsolutePath());
+        SLALogItem slaLogItem = createLogItem(file.getAbsolutePath(), identifier);
         try {
-            long processed = 0;
             MDC.put("filename", file.getName());
-
-            Collection<ShakRegion> collection = parse(file);
-            dao.saveShakRegions(collection);
-            processed += collection.size();
-
-            MDC.remove("filename");
-            slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, "" + processed);
-            slaLogItem.setCallResultOk();
-            slaLogItem.store();
+            store(parse(file), slaLogItem);
         } catch (Exception e) {
-            slaLogItem.setCallResultError("SORImporter failed - Cause: " + e.getMessage());
-            slaLogItem.store();
+            throw failed(slaLogItem, e);
+        }
+    }
 
-            throw new ParserException(e);
+    @Override
+    public void process(InputStream is, String name, String identifier) {
+        SLALogItem slaLogItem = createLogItem(name, identifier);
+        try {
+            MDC.put("filename", name);
+            store(parse(new CloseShieldInputStream(is)), slaLogItem);
+        } catch (Exception e) {
+            throw failed(slaLogItem, e);
         }
     }
 
+    private SLALogItem createLogItem(String input, String identifier) {
+        SLALogItem slaLogItem = slaLogger.createLogItem("shakregion.process", "SDM4.shakregion.process");
+        slaLogItem.setMessageId(identifier);
+        slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, input);
+        return slaLogItem;
+    }
+
+    private void store(Collection<ShakRegion> collection, SLALogItem slaLogItem) {
+        long processed = 0;
+        ImportJob.progress(ImportJob.Phase.STORING);
+        dao.saveShakRegions(collection);
+        processed += collection.size();
+        ImportJob.progress(ImportJob.Phase.STORING, processed);
+
+        MDC.remove("filename");
+        slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, "" + processed);
+        slaLogItem.setCallResultOk();
+        slaLogItem.store();
+    }
+
+    private ParserException failed(SLALogItem slaLogItem, Exception e) {
+        slaLogItem.setCallResultError("SORImporter failed - Cause: " + e.getMessage());
+        slaLogItem.store();
+
+        return new ParserException(e);
+    }
+
+    public void setStax(boolean stax) {
+        this.stax = stax;
+    }
+
     public Collection<ShakRegion> parse(File file) throws SAXException, ParserConfigurationException, IOException {
-        return parse(new FileInputStream(file));
+        InputStream is = new FileInputStream(file);
+        try {
+            return parse(is);
+        } finally {
+            is.close();
+        }
     }
 
     public Collection<ShakRegion> parse(InputStream is) throws SAXException, ParserConfigurationException, IOException {
         List<ShakRegion> returnValue = new ArrayList<ShakRegion>();
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        SAXParser parser = factory.newSAXParser();
         DefaultHandler handler = new MyShakRegionEventHandler(returnValue);
-        parser.parse(is, handler);
+        if (stax) {
+            StaxPump.parse(is, handler);
+        } else {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            SAXParser parser = factory.newSAXParser();
+            parser.parse(is, handler);
+        }
         return returnValue;
     }
 
     public static class MyShakRegionEventHandler extends DefaultHandler {
-        static DateFormat DF = new SimpleDateFormat("yyyyMMdd");
+        private static final PropertyBinder BINDER = new PropertyBinder(ShakRegion.class, DateCodec.BASIC_PATTERN);
         private List<ShakRegion> aList;
-        private String aElementValue;
+        private final StringBuilder aElementValue = new StringBuilder();
         private ShakRegion aShakRegion;
 
         public MyShakRegionEventHandler(List<ShakRegion> list) {
@@ -122,7 +165,7 @@ public class ShakRegionImporter implements Parser {
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
-            aElementValue = "";
+            aElementValue.setLength(0);
             if ("SHAKregion".equals(qName)) {
                 aShakRegion = new ShakRegion();
             }
@@ -153,54 +196,12 @@ public class ShakRegionImporter implements Parser {
                     && aShakRegion.getRegionskode() != null && aShakRegion.getSHAKkode() != null;
         }
 
-        private boolean setProperty(String qName, String value) throws Exception {
-            boolean found = false;
-            Method method = null;
-
-            Object object = aShakRegion;
-            if (object != null) {
-                // Find den rigtige setter methode
-                Class<?> target = object.getClass();
-                while (target != null && method == null) {
-                    Method methods[] = target.getDeclaredMethods();
-                    for (Method prop : methods) {
-                        if (prop.getName().equals("set" + qName)) {
-                            method = prop;
-                            break;
-                        }
-                    }
-                    target = target.getSuperclass();
-                }
-            }
-
-            if (method != null) {
-                // Find ud af hvad type setter metoden forventer og kald med den korrekte parameter
-                Class<?> param = method.getParameterTypes()[0];
-                if (param.isAssignableFrom(String.class)) {
-                    method.invoke(object, value);
-                    found = true;
-                } else if (param.isAssignableFrom(Long.class)) {
-                    Long convValue = Long.parseLong(value);
-                    method.invoke(object, convValue);
-                    found = true;
-                } else if (param.isAssignableFrom(Date.class)) {
-                    Date convValue = parseXSDDate(value);
-                    method.invoke(object, convValue);
-                    found = true;
-                } else if (param.isAssignableFrom(Boolean.class)) {
-                    Boolean b = Boolean.valueOf(value);
-                    method.invoke(object, b);
-                } else {
-                    String message = "Unsupported datatype for property " + qName + ", expected datatype was "
-                            + param.getCanonicalName();
-                    throw new Exception(message);
-                }
-            }
-            return found;
+        private boolean setProperty(String qName, CharSequence value) throws Exception {
+            return aShakRegion != null && BINDER.set(aShakRegion, qName, value);
         }
 
         public static Date parseXSDDate(String xmlDate) throws ParseException {
-            return DF.parse(xmlDate);
+            return DateCodec.parse(xmlDate, DateCodec.BASIC_PATTERN);
         }
 
         private static String stripNS(String qName) {
@@ -209,7 +210,7 @@ public class ShakRegionImporter implements Parser {
 
         @Override
         public void characters(char[] chars, int start, int length) {
-            aElementValue += new String(chars, start, length);
+            aElementValue.append(chars, start, length);
         }
     }
 }
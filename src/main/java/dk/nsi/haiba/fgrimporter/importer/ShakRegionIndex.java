@@ -0,0 +1,89 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+
+import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.model.ShakRegion;
+
+/**
+ * The SHAKregion records by SHAK code and validity, for enriching the SHAK records while they are parsed, so
+ * class_shak is written once with the region values instead of being updated region by region after the load.
+ * <p/>
+ * Datotil of a region is inclusive while ValidTo of a SHAK record is exclusive, so a region matches the record with
+ * ValidTo one day after Datotil. If the file holds a key more than once, the last region wins. The index is not changed
+ * after it is built and can be read by the parse threads.
+ */
+public class ShakRegionIndex implements SKSParser.Enricher<Organisation> {
+    private final Map<String, ShakRegion> regions;
+    private final AtomicLong matched = new AtomicLong();
+
+    public ShakRegionIndex(Collection<ShakRegion> shakRegions) {
+        regions = new HashMap<String, ShakRegion>(shakRegions.size() * 4 / 3 + 1);
+        for (ShakRegion region : shakRegions) {
+            // add another day as in class_shak
+            Date validTo = new DateTime(region.getDatotil().getTime()).plusDays(1).toDate();
+            regions.put(key(region.getSHAKkode(), region.getDatoFra(), validTo), region);
+        }
+    }
+
+    /**
+     * Sets Ejerforhold, Institutionsart and Regionskode of the record from its region, if there is one.
+     */
+    @Override
+    public void enrich(Organisation org) {
+        ShakRegion region = regions.get(key(org.getCode(), org.getValidFrom(), org.getValidTo()));
+        if (region != null) {
+            org.setEjerforhold(region.getEjerforhold());
+            org.setInstitutionsart(region.getInstitutionsart());
+            org.setRegionskode(region.getRegionskode());
+            matched.incrementAndGet();
+        }
+    }
+
+    public int size() {
+        return regions.size();
+    }
+
+    /**
+     * @return the number of records enriched so far
+     */
+    public long getMatched() {
+        return matched.get();
+    }
+
+    private static String key(String code, Date validFrom, Date validTo) {
+        return code + '\t' + validFrom.getTime() + '\t' + validTo.getTime();
+    }
+}
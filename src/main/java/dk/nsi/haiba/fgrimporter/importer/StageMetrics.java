@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+/**
+ * Timings of one stage of a pipelined import: the time the stage spent working, the time it spent waiting on the
+ * queues to its neighbours, the number of items it handed on and the deepest its output queue got. A stage waiting on
+ * a full output queue is throttled by the stage after it, one waiting on an empty input queue is starved by the one
+ * before it.
+ * <p/>
+ * Each figure is written by the thread of the stage only, and can be read by any thread.
+ */
+public class StageMetrics {
+    private final String name;
+    private volatile long busyNanos;
+    private volatile long inputWaitNanos;
+    private volatile long outputWaitNanos;
+    private volatile long items;
+    private volatile int maxQueueDepth;
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void busy(long nanos) {
+        busyNanos += nanos;
+    }
+
+    /**
+     * Sets the busy time of a stage that does not time its work, to the elapsed time less the time it waited.
+     */
+    void finish(long elapsedNanos) {
+        busyNanos = Math.max(0, elapsedNanos - inputWaitNanos - outputWaitNanos);
+    }
+
+    void waitedForInput(long nanos) {
+        inputWaitNanos += nanos;
+    }
+
+    void waitedForOutput(long nanos) {
+        outputWaitNanos += nanos;
+    }
+
+    void handedOn(int queueDepth) {
+        items++;
+        if (queueDepth > maxQueueDepth) {
+            maxQueueDepth = queueDepth;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBusyMillis() {
+        return busyNanos / 1000000;
+    }
+
+    public long getInputWaitMillis() {
+        return inputWaitNanos / 1000000;
+    }
+
+    public long getOutputWaitMillis() {
+        return outputWaitNanos / 1000000;
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [busy " + getBusyMillis() + " ms, waiting for input " + getInputWaitMillis()
+                + " ms, waiting for output " + getOutputWaitMillis() + " ms, " + items + " handed on, max queue depth "
+                + maxQueueDepth + "]";
+    }
+}
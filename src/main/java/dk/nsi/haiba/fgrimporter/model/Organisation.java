@@ -31,12 +31,47 @@ public class Organisation extends SKSLine {
     public static final String RECORD_TYPE_HOSPITAL = "sgh";
     public static final String RECORD_TYPE_DEPARTMENT = "afd";
 
+    // from the SHAKregion file, null unless the record was enriched with its region
+    private String ejerforhold;
+    private String institutionsart;
+    private String regionskode;
+
     public Organisation() {
     }
 
     public String getOrganisationstype() {
+        return organisationstype(getType());
+    }
+
+    public String getEjerforhold() {
+        return ejerforhold;
+    }
+
+    public void setEjerforhold(String ejerforhold) {
+        this.ejerforhold = ejerforhold;
+    }
+
+    public String getInstitutionsart() {
+        return institutionsart;
+    }
+
+    public void setInstitutionsart(String institutionsart) {
+        this.institutionsart = institutionsart;
+    }
+
+    public String getRegionskode() {
+        return regionskode;
+    }
+
+    public void setRegionskode(String regionskode) {
+        this.regionskode = regionskode;
+    }
+
+    /**
+     * @return the organisationstype of a record type
+     */
+    public static String organisationstype(String type) {
         String returnValue = null;
-        String type = getType();
 
         if (RECORD_TYPE_DEPARTMENT.equals(type)) {
             returnValue = "Afdeling";
@@ -46,4 +81,16 @@ public class Organisation extends SKSLine {
 
         return returnValue;
     }
+
+    /**
+     * @return the record type of an organisationstype, the reverse of {@link #getOrganisationstype()}
+     */
+    public static String recordType(String organisationstype) {
+        if ("Afdeling".equals(organisationstype)) {
+            return RECORD_TYPE_DEPARTMENT;
+        } else if ("Sygehus".equals(organisationstype)) {
+            return RECORD_TYPE_HOSPITAL;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,258 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.model;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import dk.nsi.haiba.fgrimporter.util.DateCodec;
+
+/**
+ * Parsed SKS lines stored column by column instead of as {@link SKSLine} objects: the validity period as epoch day
+ * ints, see {@link DateCodec}, the type as an index into a dictionary of the types seen, and codes and texts as ranges
+ * of one shared char array. A row costs about 30 bytes plus two bytes per char, where an SKSLine with its two Dates
+ * and three Strings costs several hundred.
+ * <p/>
+ * Rows are appended and never removed. A row equal to one added before, by type, code and validity period like
+ * {@link SKSLine#equals(Object)}, is dropped and counted as a duplicate. Rows are found by code through a chained
+ * hash index, which is also what finds the duplicates.
+ */
+public class SKSColumns {
+    private static final int INITIAL_ROWS = 1024;
+
+    private String[] types = new String[8];
+    private int typeCount;
+
+    private char[] arena = new char[INITIAL_ROWS * 32];
+    private int arenaLength;
+
+    // the code of row i is arena[codeOffset[i], textOffset[i]), its text arena[textOffset[i], codeOffset[i + 1])
+    private int[] codeOffset = new int[INITIAL_ROWS + 1];
+    private int[] textOffset = new int[INITIAL_ROWS];
+    private int[] validFrom = new int[INITIAL_ROWS];
+    private int[] validTo = new int[INITIAL_ROWS];
+    private byte[] type = new byte[INITIAL_ROWS];
+
+    // a bucket holds 1 + the first row with a code of that hash, a row 1 + the next row in its bucket
+    private int[] buckets = new int[INITIAL_ROWS * 2];
+    private int[] nextInBucket = new int[INITIAL_ROWS];
+    private int[] codeHash = new int[INITIAL_ROWS];
+
+    private int size;
+    private long duplicates;
+
+    /**
+     * Appends a row, unless an equal one has been added. The chars are copied, so the arguments may be views that
+     * change afterwards.
+     *
+     * @param validToDay the epoch day the row is valid to, exclusive
+     * @return false if the row was a duplicate
+     */
+    public boolean add(CharSequence lineType, CharSequence code, CharSequence text, int validFromDay, int validToDay) {
+        int typeIndex = typeIndex(lineType);
+        int hash = hash(code);
+        for (int row = buckets[hash & (buckets.length - 1)] - 1; row >= 0; row = nextInBucket[row] - 1) {
+            if (codeHash[row] == hash && type[row] == typeIndex && validFrom[row] == validFromDay
+                    && validTo[row] == validToDay && codeEquals(row, code)) {
+                duplicates++;
+                return false;
+            }
+        }
+        if (size == validFrom.length) {
+            growRows();
+        }
+        ensureArena(code.length() + text.length());
+        int row = size;
+        codeOffset[row] = arenaLength;
+        append(code);
+        textOffset[row] = arenaLength;
+        append(text);
+        codeOffset[row + 1] = arenaLength;
+        validFrom[row] = validFromDay;
+        validTo[row] = validToDay;
+        type[row] = (byte) typeIndex;
+        codeHash[row] = hash;
+        link(row);
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of rows dropped because they were equal to a row added before
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public String getType(int row) {
+        checkRow(row);
+        return types[type[row]];
+    }
+
+    public String getCode(int row) {
+        checkRow(row);
+        return new String(arena, codeOffset[row], textOffset[row] - codeOffset[row]);
+    }
+
+    public String getText(int row) {
+        checkRow(row);
+        return new String(arena, textOffset[row], codeOffset[row + 1] - textOffset[row]);
+    }
+
+    public int getValidFromDay(int row) {
+        checkRow(row);
+        return validFrom[row];
+    }
+
+    /**
+     * @return the epoch day the row is valid to, exclusive
+     */
+    public int getValidToDay(int row) {
+        checkRow(row);
+        return validTo[row];
+    }
+
+    public Date getValidFrom(int row) {
+        return DateCodec.toDate(getValidFromDay(row));
+    }
+
+    public Date getValidTo(int row) {
+        return DateCodec.toDate(getValidToDay(row));
+    }
+
+    /**
+     * @param lineType the type of the row, or null for any type
+     * @return the row with the type and code that is valid on the epoch day, or -1 if there is none
+     */
+    public int find(String lineType, CharSequence code, int epochDay) {
+        int hash = hash(code);
+        for (int row = buckets[hash & (buckets.length - 1)] - 1; row >= 0; row = nextInBucket[row] - 1) {
+            if (codeHash[row] == hash && validFrom[row] <= epochDay && epochDay < validTo[row]
+                    && (lineType == null || lineType.equals(types[type[row]])) && codeEquals(row, code)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private int typeIndex(CharSequence lineType) {
+        for (int i = 0; i < typeCount; i++) {
+            if (contentEquals(types[i], lineType)) {
+                return i;
+            }
+        }
+        if (typeCount == Byte.MAX_VALUE) {
+            throw new IllegalStateException("more than " + Byte.MAX_VALUE + " record types");
+        }
+        if (typeCount == types.length) {
+            types = Arrays.copyOf(types, types.length * 2);
+        }
+        types[typeCount] = lineType.toString();
+        return typeCount++;
+    }
+
+    private boolean codeEquals(int row, CharSequence code) {
+        int offset = codeOffset[row];
+        int length = textOffset[row] - offset;
+        if (length != code.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != code.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            arena[arenaLength++] = value.charAt(i);
+        }
+    }
+
+    private void link(int row) {
+        int bucket = codeHash[row] & (buckets.length - 1);
+        nextInBucket[row] = buckets[bucket];
+        buckets[bucket] = row + 1;
+    }
+
+    private void ensureArena(int chars) {
+        if (arenaLength + chars > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + chars));
+        }
+    }
+
+    /*
+     * Doubles the row columns and the buckets, and relinks the rows into the new buckets
+     */
+    private void growRows() {
+        int rows = validFrom.length * 2;
+        codeOffset = Arrays.copyOf(codeOffset, rows + 1);
+        textOffset = Arrays.copyOf(textOffset, rows);
+        validFrom = Arrays.copyOf(validFrom, rows);
+        validTo = Arrays.copyOf(validTo, rows);
+        type = Arrays.copyOf(type, rows);
+        codeHash = Arrays.copyOf(codeHash, rows);
+        nextInBucket = new int[rows];
+        buckets = new int[rows * 2];
+        for (int row = 0; row < size; row++) {
+            link(row);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+    }
+
+    private static int hash(CharSequence code) {
+        int hash = 0;
+        for (int i = 0; i < code.length(); i++) {
+            hash = 31 * hash + code.charAt(i);
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(String s, CharSequence cs) {
+        if (s.length() != cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != cs.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -26,14 +26,49 @@
  */
 package dk.nsi.haiba.fgrimporter.model;
 
+import java.util.Comparator;
 import java.util.Date;
 
 public class SKSLine {
+    /**
+     * Operation codes of delta files, see {@link dk.nsi.haiba.fgrimporter.importer.SKSParser}.
+     */
+    public static final char OPERATION_NONE = ' ';
+    public static final char OPERATION_CREATE = '1';
+    public static final char OPERATION_DELETE = '2';
+    public static final char OPERATION_UPDATE = '3';
+
+    /**
+     * Orders by the natural key of a line, code, type and valid from.
+     */
+    public static final Comparator<SKSLine> KEY_ORDER = new Comparator<SKSLine>() {
+        @Override
+        public int compare(SKSLine a, SKSLine b) {
+            int c = compareNullsFirst(a.code, b.code);
+            if (c == 0) {
+                c = compareNullsFirst(a.type, b.type);
+            }
+            return c != 0 ? c : compareNullsFirst(a.validFrom, b.validFrom);
+        }
+    };
+
+    /**
+     * Orders by the values besides the key, text and valid to. A missing text is the same as an empty one.
+     */
+    public static final Comparator<SKSLine> VALUE_ORDER = new Comparator<SKSLine>() {
+        @Override
+        public int compare(SKSLine a, SKSLine b) {
+            int c = (a.text != null ? a.text : "").compareTo(b.text != null ? b.text : "");
+            return c != 0 ? c : compareNullsFirst(a.validTo, b.validTo);
+        }
+    };
+
     private Date validFrom;
     private Date validTo;
     private String text;
     private String code;
     private String type;
+    private char operation = OPERATION_NONE;
 
     public String getText() {
         return text;
@@ -74,4 +109,71 @@ public class SKSLine {
     public Date getValidFrom() {
         return validFrom;
     }
+
+    public char getOperation() {
+        return operation;
+    }
+
+    public void setOperation(char operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * A line is identified by its type, code and validity period.
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((code == null) ? 0 : code.hashCode());
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        result = prime * result + ((validFrom == null) ? 0 : validFrom.hashCode());
+        result = prime * result + ((validTo == null) ? 0 : validTo.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SKSLine other = (SKSLine) obj;
+        if (code == null) {
+            if (other.code != null)
+                return false;
+        } else if (!code.equals(other.code))
+            return false;
+        if (type == null) {
+            if (other.type != null)
+                return false;
+        } else if (!type.equals(other.type))
+            return false;
+        if (validFrom == null) {
+            if (other.validFrom != null)
+                return false;
+        } else if (other.validFrom == null || validFrom.getTime() != other.validFrom.getTime())
+            return false;
+        if (validTo == null) {
+            if (other.validTo != null)
+                return false;
+        } else if (other.validTo == null || validTo.getTime() != other.validTo.getTime())
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [type=" + type + ", code=" + code + ", validFrom=" + validFrom
+                + ", validTo=" + validTo + ", text=" + text + "]";
+    }
+
+    private static <C extends Comparable<? super C>> int compareNullsFirst(C a, C b) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
 }
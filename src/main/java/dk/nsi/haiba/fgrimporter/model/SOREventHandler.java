@@ -27,10 +27,7 @@
 
 package dk.nsi.haiba.fgrimporter.model;
 
-import java.lang.reflect.Method;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.xml.sax.Attributes;
@@ -42,11 +39,32 @@ import dk.nsi.haiba.fgrimporter.model.xmlmodel.HealthInstitutionEntity;
 import dk.nsi.haiba.fgrimporter.model.xmlmodel.InstitutionOwnerEntity;
 import dk.nsi.haiba.fgrimporter.model.xmlmodel.OrganizationalUnitEntity;
 import dk.nsi.haiba.fgrimporter.model.xmlmodel.XMLModelMapper;
+import dk.nsi.haiba.fgrimporter.util.DateCodec;
+import dk.nsi.haiba.fgrimporter.util.PropertyBinder;
+import dk.nsi.haiba.fgrimporter.util.StringPool;
 
 
 public class SOREventHandler extends DefaultHandler
 {
-    private String elementValue;
+    private static final String XSD_DATE_PATTERN = DateCodec.ISO_PATTERN;
+
+    /**
+     * The address fields of the entities, and the street lines made of them, repeat for the units at the same address.
+     * The pool is shared by all parses.
+     */
+    public static final StringPool STRINGS = new StringPool(8192, 128);
+    private static final String[] POOLED_PROPERTIES = { "StreetName", "StreetBuildingIdentifier", "PostCodeIdentifier",
+            "DistrictName", "CountryIdentificationCode", "EmailAddressIdentifier", "Website",
+            "TelephoneNumberIdentifier", "FaxNumberIdentifier" };
+
+    private static final PropertyBinder IOE_BINDER = new PropertyBinder(InstitutionOwnerEntity.class,
+            XSD_DATE_PATTERN, STRINGS, POOLED_PROPERTIES);
+    private static final PropertyBinder HIE_BINDER = new PropertyBinder(HealthInstitutionEntity.class,
+            XSD_DATE_PATTERN, STRINGS, POOLED_PROPERTIES);
+    private static final PropertyBinder OUE_BINDER = new PropertyBinder(OrganizationalUnitEntity.class,
+            XSD_DATE_PATTERN, STRINGS, POOLED_PROPERTIES);
+
+    private final StringBuilder elementValue = new StringBuilder();
 
     private InstitutionOwnerEntity curIOE;
     private HealthInstitutionEntity curHIE;
@@ -62,7 +80,7 @@ public class SOREventHandler extends DefaultHandler
 
     @Override
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
-        elementValue = "";
+        elementValue.setLength(0);
 
         if ("InstitutionOwnerEntity".equals(qName)) {
             curIOE = new InstitutionOwnerEntity();
@@ -99,7 +117,7 @@ public class SOREventHandler extends DefaultHandler
                     // Lægepraksis og special læger.
                 } else if (institutuinEntity.getEntityTypeIdentifier() == 22232009L) {
                     // Sygehus.
-                    Sygehus s = XMLModelMapper.toSygehus(institutuinEntity);
+                    Sygehus s = XMLModelMapper.toSygehus(institutuinEntity, STRINGS);
                     for (OrganizationalUnitEntity oue : institutuinEntity.getOrganizationalUnitEntities()) {
                         addAfdelinger(oue);
                     }
@@ -127,7 +145,7 @@ public class SOREventHandler extends DefaultHandler
     private void addAfdelinger(OrganizationalUnitEntity oue) {
         if (oue.getShakIdentifier() != null) {
             // Ignore all 'SygehusAfdeling' with no SKS
-            SygehusAfdeling sa = XMLModelMapper.toSygehusAfdeling(oue);
+            SygehusAfdeling sa = XMLModelMapper.toSygehusAfdeling(oue, STRINGS);
             dataSets.getSygehusAfdelingDS().add(sa);
 
             for (OrganizationalUnitEntity soue : oue.getSons()) {
@@ -171,71 +189,27 @@ public class SOREventHandler extends DefaultHandler
 
     @Override
     public void characters(char[] chars, int start, int length) {
-        elementValue += new String(chars, start, length);
+        elementValue.append(chars, start, length);
     }
 
-    private boolean setProperty(String qName, String value) throws Exception {
-        boolean found = false;
-        Method method = null;
-        Object object = null;
-
+    private boolean setProperty(String qName, CharSequence value) throws Exception {
         // Ignore region code in postal address
         if (postalRegionCode && "RegionCode".equals(qName)) {
             return false;
         }
 
         if (curOUE != null) {
-            object = curOUE;
+            return OUE_BINDER.set(curOUE, qName, value);
         } else if (curHIE != null) {
-            object = curHIE;
+            return HIE_BINDER.set(curHIE, qName, value);
         } else if (curIOE != null) {
-            object = curIOE;
-        }
-
-        if (object != null) {
-            // Find den rigtige setter methode
-            Class<?> target = object.getClass();
-            while (target != null && method == null) {
-                Method methods[] = target.getDeclaredMethods();
-                for (Method prop : methods) {
-                    if (prop.getName().equals("set" + qName)) {
-                        method = prop;
-                        break;
-                    }
-                }
-                target = target.getSuperclass();
-            }
+            return IOE_BINDER.set(curIOE, qName, value);
         }
-
-        if (method != null) {
-            // Find ud af hvad type setter metoden forventer og kald med den korrekte parameter
-            Class<?> param = method.getParameterTypes()[0];
-            if (param.isAssignableFrom(String.class)) {
-                method.invoke(object, value);
-                found = true;
-            } else if (param.isAssignableFrom(Long.class)) {
-                Long convValue = Long.parseLong(value);
-                method.invoke(object, convValue);
-                found = true;
-            } else if (param.isAssignableFrom(Date.class)) {
-                Date convValue = parseXSDDate(value);
-                method.invoke(object, convValue);
-                found = true;
-            } else if (param.isAssignableFrom(Boolean.class)) {
-                Boolean b = Boolean.valueOf(value);
-                method.invoke(object, b);
-            } else {
-                String message = "Unsupported datatype for property " + qName + ", expected datatype was " + param.getCanonicalName();
-                throw new Exception(message);
-            }
-        }
-        return found;
+        return false;
     }
 
     public static Date parseXSDDate(String xmlDate) throws ParseException
     {
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-
-        return df.parse(xmlDate);
+        return DateCodec.parse(xmlDate, XSD_DATE_PATTERN);
     }
 }
@@ -29,16 +29,20 @@ package dk.nsi.haiba.fgrimporter.model.xmlmodel;
 
 import dk.nsi.haiba.fgrimporter.model.Sygehus;
 import dk.nsi.haiba.fgrimporter.model.SygehusAfdeling;
+import dk.nsi.haiba.fgrimporter.util.StringPool;
 
 public class XMLModelMapper {
-	public static Sygehus toSygehus(HealthInstitutionEntity hie) {
+	/**
+	 * @param strings the pool of the street line, which is the same for the entities at the same address
+	 */
+	public static Sygehus toSygehus(HealthInstitutionEntity hie, StringPool strings) {
 
 		Sygehus s = new Sygehus();
 		s.setSorNummer(hie.getSorIdentifier());
 		s.setNavn(hie.getEntityName());
 		s.setEanLokationsnummer(hie.getEanLocationCode());
 		s.setNummer(hie.getShakIdentifier());
-		s.setVejnavn(hie.getStreetName() + " " + hie.getStreetBuildingIdentifier());
+		s.setVejnavn(strings.intern(hie.getStreetName() + " " + hie.getStreetBuildingIdentifier()));
 		s.setBynavn(hie.getDistrictName());
 		s.setPostnummer(hie.getPostCodeIdentifier());
 		s.setEmail(hie.getEmailAddressIdentifier());
@@ -50,13 +54,13 @@ public class XMLModelMapper {
 		return s;
 	}
 
-	public static SygehusAfdeling toSygehusAfdeling(OrganizationalUnitEntity oue) {
+	public static SygehusAfdeling toSygehusAfdeling(OrganizationalUnitEntity oue, StringPool strings) {
 		SygehusAfdeling sa = new SygehusAfdeling();
 		sa.setEanLokationsnummer(oue.getEanLocationCode());
 		sa.setSorNummer(oue.getSorIdentifier());
 		sa.setNavn(oue.getEntityName());
 		sa.setNummer(oue.getShakIdentifier());
-		sa.setVejnavn(oue.getStreetName() + " " + oue.getStreetBuildingIdentifier());
+		sa.setVejnavn(strings.intern(oue.getStreetName() + " " + oue.getStreetBuildingIdentifier()));
 		sa.setBynavn(oue.getDistrictName());
 		sa.setPostnummer(oue.getPostCodeIdentifier());
 		sa.setEmail(oue.getEmailAddressIdentifier());
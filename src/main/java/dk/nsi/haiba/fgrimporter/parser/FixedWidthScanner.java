@@ -0,0 +1,396 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the lines of a file with fixed width fields in a single byte charset, without creating objects per line.
+ * <p/>
+ * A line is a range of the underlying buffer, and its fields are read by byte position. Only the fields that are
+ * asked for as Strings are decoded, through a byte to char table, so lines that are skipped cost nothing. Lines end
+ * with \n, \r or \r\n, like for {@link java.io.BufferedReader#readLine()}.
+ * <p/>
+ * A file is memory mapped. On Windows the mapping keeps the file from being deleted or replaced until the buffer is
+ * garbage collected. A stream is read through a window that is refilled as the lines are consumed.
+ */
+public class FixedWidthScanner {
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private final char[] table;
+    private final InputStream is;
+    private ByteBuffer buffer;
+    private boolean eof;
+
+    // the current line is [start, end) of the buffer, the next one starts at next
+    private int start;
+    private int end;
+    private int next;
+
+    private char[] chars = new char[256];
+
+    private FixedWidthScanner(ByteBuffer buffer, InputStream is, Charset charset) {
+        this(buffer, is, decodeTable(charset));
+    }
+
+    private FixedWidthScanner(ByteBuffer buffer, InputStream is, char[] table) {
+        this.table = table;
+        this.buffer = buffer;
+        this.is = is;
+        this.eof = is == null;
+    }
+
+    /**
+     * Maps the file into memory and scans it.
+     */
+    public static FixedWidthScanner map(File file, Charset charset) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped, " + channel.size() + " bytes");
+            }
+            // the mapping stays valid when the channel is closed
+            return new FixedWidthScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null,
+                    charset);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Scans the stream, which is read as the lines are consumed and is not closed.
+     */
+    public static FixedWidthScanner read(InputStream is, Charset charset) {
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        window.limit(0);
+        return new FixedWidthScanner(window, is, charset);
+    }
+
+    /**
+     * Splits a mapped file into at most parts scanners over consecutive ranges of whole lines, that together scan the
+     * same lines as this scanner. The ranges can be scanned in parallel. This scanner is not changed.
+     */
+    public List<FixedWidthScanner> split(int parts) {
+        if (is != null) {
+            throw new IllegalStateException("only a mapped file can be split");
+        }
+        List<FixedWidthScanner> scanners = new ArrayList<FixedWidthScanner>();
+        int limit = buffer.limit();
+        int from = 0;
+        for (int part = 1; part <= parts && from < limit; part++) {
+            int to = part == parts ? limit : lineStart((int) ((long) limit * part / parts), from, limit);
+            if (to > from) {
+                ByteBuffer range = buffer.duplicate();
+                range.limit(to);
+                range.position(from);
+                scanners.add(new FixedWidthScanner(range.slice(), null, table));
+                from = to;
+            }
+        }
+        return scanners;
+    }
+
+    /*
+     * The start of the first line after position
+     */
+    private int lineStart(int position, int from, int limit) {
+        for (int i = Math.max(position, from); i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                return i + 1;
+            } else if (b == '\r') {
+                return i + 1 < limit && buffer.get(i + 1) == '\n' ? i + 2 : i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if there are no more lines
+     */
+    public boolean next() throws IOException {
+        start = next;
+        int i = start;
+        while (true) {
+            for (; i < buffer.limit(); i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 == buffer.limit() && !eof) {
+                        // a \n may follow in the next read
+                        break;
+                    }
+                    end = i;
+                    next = b == '\r' && i + 1 < buffer.limit() && buffer.get(i + 1) == '\n' ? i + 2 : i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (start < buffer.limit()) {
+                    end = buffer.limit();
+                    next = end;
+                    return true;
+                }
+                return false;
+            }
+            i -= start;
+            fill();
+        }
+    }
+
+    /*
+     * Moves the unconsumed bytes, the line being searched, to the start of the window and reads more after them
+     */
+    private void fill() throws IOException {
+        int remaining = buffer.limit() - start;
+        byte[] array = buffer.array();
+        if (start == 0 && remaining == array.length) {
+            // a line longer than the window
+            byte[] larger = new byte[array.length * 2];
+            System.arraycopy(array, 0, larger, 0, remaining);
+            buffer = ByteBuffer.wrap(larger);
+            array = larger;
+        } else {
+            System.arraycopy(array, start, array, 0, remaining);
+        }
+        int read = is.read(array, remaining, array.length - remaining);
+        buffer.limit(remaining + Math.max(read, 0));
+        eof = read == -1;
+        start = 0;
+        next = 0;
+    }
+
+    /**
+     * @return the length of the current line in bytes
+     */
+    public int length() {
+        return end - start;
+    }
+
+    public char charAt(int index) {
+        checkIndex(index);
+        return table[buffer.get(start + index) & 0xff];
+    }
+
+    /**
+     * @return true if the field at from holds the value, ignoring case. Positions past the end of the line never
+     *         match
+     */
+    public boolean regionMatchesIgnoreCase(int from, String value) {
+        if (from + value.length() > length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = charAt(from + i);
+            char v = value.charAt(i);
+            if (c != v && Character.toUpperCase(c) != Character.toUpperCase(v)
+                    && Character.toLowerCase(c) != Character.toLowerCase(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the field [from, from + length) packed into an int like {@link RecordTypeTable#pack(CharSequence)}, or
+     *         0 if the line is shorter
+     */
+    public int packLowerCase(int from, int length) {
+        if (from + length > length()) {
+            return 0;
+        }
+        int packed = 0;
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get(start + from + i) & 0xff;
+            packed = packed << 8 | (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+        }
+        return packed;
+    }
+
+    /**
+     * @return the decoded field [from, to)
+     */
+    public String string(int from, int to) {
+        checkRange(from, to);
+        int length = to - from;
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = table[buffer.get(start + from + i) & 0xff];
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @return the decoded field [from, to), with leading and trailing whitespace removed as by
+     *         {@link String#trim()}
+     */
+    public String trimmed(int from, int to) {
+        checkRange(from, to);
+        while (from < to && charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return string(from, to);
+    }
+
+    /**
+     * @return the field [from, to) as a view that decodes the chars as they are read, instead of a String. The view
+     *         is only valid until the next line is read
+     */
+    public CharSequence field(int from, int to) {
+        checkRange(from, to);
+        return new Field(start + from, to - from);
+    }
+
+    /**
+     * @return the field [from, to) with whitespace removed as by {@link #trimmed(int, int)}, as a view like
+     *         {@link #field(int, int)}
+     */
+    public CharSequence trimmedField(int from, int to) {
+        checkRange(from, to);
+        while (from < to && charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return new Field(start + from, to - from);
+    }
+
+    /**
+     * @return the value of the field [from, to), which must be decimal digits
+     * @throws NumberFormatException if the field holds anything else
+     */
+    public int digits(int from, int to) {
+        checkRange(from, to);
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a number at " + from + "-" + to + ": " + string(from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the current line, for messages
+     */
+    public String line() {
+        return string(0, length());
+    }
+
+    private final class Field implements CharSequence {
+        private final int offset;
+        private final int length;
+
+        Field(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return table[buffer.get(offset + index) & 0xff];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length || from > to) {
+                throw new StringIndexOutOfBoundsException("subsequence " + from + "-" + to + " of " + length);
+            }
+            return new Field(offset + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            char[] decoded = new char[length];
+            for (int i = 0; i < length; i++) {
+                decoded[i] = table[buffer.get(offset + i) & 0xff];
+            }
+            return new String(decoded);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length()) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new StringIndexOutOfBoundsException("field " + from + "-" + to + " of a line of " + length());
+        }
+    }
+
+    private static char[] decodeTable(Charset charset) {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        CharBuffer decoded;
+        try {
+            decoded = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(ByteBuffer.wrap(bytes));
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+        if (decoded.remaining() != bytes.length) {
+            throw new IllegalArgumentException(charset + " is not a single byte charset");
+        }
+        char[] table = new char[bytes.length];
+        decoded.get(table);
+        return table;
+    }
+}
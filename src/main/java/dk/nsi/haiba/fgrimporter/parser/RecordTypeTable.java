@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.parser;
+
+/**
+ * Maps three character record types, ignoring case, to values. A record type is packed into an int, see
+ * {@link #pack(CharSequence)} and {@link FixedWidthScanner#packLowerCase(int, int)}, and looked up in an open
+ * addressing table, so a lookup neither loops over the types nor creates objects.
+ */
+public class RecordTypeTable<V> {
+    public static final int TYPE_LENGTH = 3;
+
+    // 0 marks a free slot, no record type packs to 0
+    private int[] keys = new int[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    /**
+     * @return the record type packed into an int, the ASCII letters lower cased
+     * @throws IllegalArgumentException if the type is not three ASCII characters
+     */
+    public static int pack(CharSequence type) {
+        if (type.length() != TYPE_LENGTH) {
+            throw new IllegalArgumentException("a record type has " + TYPE_LENGTH + " characters: " + type);
+        }
+        int packed = 0;
+        for (int i = 0; i < TYPE_LENGTH; i++) {
+            char c = type.charAt(i);
+            if (c == 0 || c > 0x7f) {
+                throw new IllegalArgumentException("a record type is ASCII: " + type);
+            }
+            packed = packed << 8 | (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        return packed;
+    }
+
+    public void put(String type, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int packed = pack(type);
+        int slot = slot(packed);
+        if (keys[slot] == 0) {
+            keys[slot] = packed;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    public V get(String type) {
+        return get(pack(type));
+    }
+
+    /**
+     * @return the value of the packed record type, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int packed) {
+        return packed == 0 ? null : (V) values[slot(packed)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * The slot holding the key, or the free slot where it belongs
+     */
+    private int slot(int packed) {
+        int mask = keys.length - 1;
+        int slot = (packed * 0x9E3779B9) >>> 16 & mask;
+        while (keys[slot] != 0 && keys[slot] != packed) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.status;
+
+/**
+ * Leases on the import types, held in the FGRImporterLease table, so only one of the nodes sharing the HAIBA database
+ * runs an import of a type at a time. A lease expires unless its owner renews it, so the lease of a node that died
+ * during an import can be taken over. The expiry is kept in database time, so the clocks of the nodes may differ.
+ */
+public interface ImportLeaseRepository {
+    /**
+     * Takes the lease of the type for the owner, if it is free, expired or already held by the owner.
+     *
+     * @return true if the owner holds the lease for the next leaseSeconds
+     */
+    boolean acquire(String type, String owner, int leaseSeconds);
+
+    /**
+     * Extends the lease of the owner by leaseSeconds from now.
+     *
+     * @return false if the owner no longer holds the lease
+     */
+    boolean renew(String type, String owner, int leaseSeconds);
+
+    /**
+     * Gives up the lease, if the owner holds it.
+     */
+    void release(String type, String owner);
+}
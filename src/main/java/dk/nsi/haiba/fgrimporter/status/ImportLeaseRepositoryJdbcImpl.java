@@ -0,0 +1,95 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.status;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.haiba.fgrimporter.dao.CommonDAO;
+import dk.nsi.haiba.fgrimporter.log.Log;
+
+/**
+ * The lease row of a type is taken with a conditional update, and created with an insert the first time. When two
+ * nodes insert the row at the same time the primary key lets one of them win.
+ */
+public class ImportLeaseRepositoryJdbcImpl extends CommonDAO implements ImportLeaseRepository {
+    private static Log log = new Log(Logger.getLogger(ImportLeaseRepositoryJdbcImpl.class));
+
+    @Autowired
+    private JdbcTemplate haibaJdbcTemplate;
+
+    @Value("${jdbc.haibatableprefix:}")
+    String tableprefix;
+
+    @Override
+    public boolean acquire(String type, String owner, int leaseSeconds) {
+        int updated = haibaJdbcTemplate.update("UPDATE " + table() + " SET Owner=?, AcquiredAt=CURRENT_TIMESTAMP,"
+                + " ExpiresAt=" + expiry() + " WHERE Type=? AND (Owner=? OR ExpiresAt < CURRENT_TIMESTAMP)", owner,
+                leaseSeconds, type, owner);
+        if (updated > 0) {
+            return true;
+        }
+        try {
+            haibaJdbcTemplate.update("INSERT INTO " + table() + " (Type, Owner, AcquiredAt, ExpiresAt)"
+                    + " VALUES (?, ?, CURRENT_TIMESTAMP, " + expiry() + ")", type, owner, leaseSeconds);
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            // the row exists and is held by another node
+            log.debug("lease of " + type + " is held by another node: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean renew(String type, String owner, int leaseSeconds) {
+        return haibaJdbcTemplate.update("UPDATE " + table() + " SET ExpiresAt=" + expiry()
+                + " WHERE Type=? AND Owner=?", leaseSeconds, type, owner) > 0;
+    }
+
+    @Override
+    public void release(String type, String owner) {
+        haibaJdbcTemplate.update("DELETE FROM " + table() + " WHERE Type=? AND Owner=?", type, owner);
+    }
+
+    /*
+     * The time leaseSeconds from now in the database, the seconds are the parameter
+     */
+    private String expiry() {
+        if (MYSQL.equals(getDialect())) {
+            return "TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)";
+        }
+        // MSSQL
+        return "DATEADD(second, ?, CURRENT_TIMESTAMP)";
+    }
+
+    private String table() {
+        return tableprefix + "FGRImporterLease";
+    }
+}
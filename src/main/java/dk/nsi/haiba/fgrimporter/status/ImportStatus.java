@@ -34,6 +34,10 @@ public class ImportStatus {
 	private DateTime endTime;
 	private Outcome outcome;
 	private String errorMessage;
+	private String digest;
+	private Integer rowsInserted;
+	private Integer rowsUpdated;
+	private Integer rowsDeleted;
 
 	public DateTime getStartTime() {
 		return startTime;
@@ -67,9 +71,46 @@ public class ImportStatus {
 		this.errorMessage = errorMessage;
 	}
 
+	public String getDigest() {
+		return digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * @return the number of rows inserted, or null if the import did not count them
+	 */
+	public Integer getRowsInserted() {
+		return rowsInserted;
+	}
+
+	public void setRowsInserted(Integer rowsInserted) {
+		this.rowsInserted = rowsInserted;
+	}
+
+	public Integer getRowsUpdated() {
+		return rowsUpdated;
+	}
+
+	public void setRowsUpdated(Integer rowsUpdated) {
+		this.rowsUpdated = rowsUpdated;
+	}
+
+	public Integer getRowsDeleted() {
+		return rowsDeleted;
+	}
+
+	public void setRowsDeleted(Integer rowsDeleted) {
+		this.rowsDeleted = rowsDeleted;
+	}
+
 	public static enum Outcome {
 		SUCCESS,
-		FAILURE
+		FAILURE,
+		/** the fetched file was identical to the one of the last successful import, nothing was imported */
+		UNCHANGED
 	}
 
 	@Override
@@ -89,6 +130,10 @@ public class ImportStatus {
 			if(outcome.equals(Outcome.FAILURE)) {
 				body += ", error was " +errorMessage;
 			}
+			if (rowsInserted != null) {
+				body += ". " + rowsInserted + " rows inserted, " + rowsUpdated + " updated and " + rowsDeleted
+						+ " deleted";
+			}
 		}
 
 		return body;
@@ -105,6 +150,10 @@ public class ImportStatus {
 		if (outcome != that.outcome) return false;
 		if (startTime != null ? !startTime.equals(that.startTime) : that.startTime != null) return false;
 		if (errorMessage != null ? !errorMessage.equals(that.errorMessage) : that.errorMessage != null) return false;
+		if (digest != null ? !digest.equals(that.digest) : that.digest != null) return false;
+		if (rowsInserted != null ? !rowsInserted.equals(that.rowsInserted) : that.rowsInserted != null) return false;
+		if (rowsUpdated != null ? !rowsUpdated.equals(that.rowsUpdated) : that.rowsUpdated != null) return false;
+		if (rowsDeleted != null ? !rowsDeleted.equals(that.rowsDeleted) : that.rowsDeleted != null) return false;
 
 		return true;
 	}
@@ -115,6 +164,10 @@ public class ImportStatus {
 		result = 31 * result + (endTime != null ? endTime.hashCode() : 0);
 		result = 31 * result + (outcome != null ? outcome.hashCode() : 0);
 		result = 31 * result + (errorMessage != null ? errorMessage.hashCode() : 0);
+		result = 31 * result + (digest != null ? digest.hashCode() : 0);
+		result = 31 * result + (rowsInserted != null ? rowsInserted.hashCode() : 0);
+		result = 31 * result + (rowsUpdated != null ? rowsUpdated.hashCode() : 0);
+		result = 31 * result + (rowsDeleted != null ? rowsDeleted.hashCode() : 0);
 		return result;
 	}
 
@@ -42,5 +42,26 @@ public interface ImportStatusRepository {
 
 	void importEndedWithSuccess(DateTime endTime, String type);
 
+	/**
+	 * Ends the import with success, and stores the digest of the imported file
+	 */
+	void importEndedWithSuccess(DateTime endTime, String type, String digest);
+
+	/**
+	 * Ends the import as unchanged, because the fetched file had the same digest as the last successful import
+	 */
+	void importEndedUnchanged(DateTime endTime, String type, String digest);
+
+	/**
+	 * @return the digest of the file of the newest finished import of the type if that import succeeded or was
+	 *         unchanged, null if it failed or there is none
+	 */
+	String getLastSuccessfulDigest(String type);
+
+	/**
+	 * Records the number of rows the running import of the type inserted, updated and deleted
+	 */
+	void importChanges(String type, int inserted, int updated, int deleted);
+
 	void importEndedWithFailure(DateTime endTime, String errorMessage, String type);
 }
@@ -68,8 +68,21 @@ public class ImportStatusRepositoryJdbcImpl extends CommonDAO implements ImportS
     @Override
     @Transactional(value = "haibaTransactionManager")
     public void importEndedWithSuccess(DateTime endTime, String type) {
+        importEndedWithSuccess(endTime, type, null);
+    }
+
+    @Override
+    @Transactional(value = "haibaTransactionManager")
+    public void importEndedWithSuccess(DateTime endTime, String type, String digest) {
         log.debug("Import ended with success");
-        importEndedAt(endTime, ImportStatus.Outcome.SUCCESS, null, type);
+        importEndedAt(endTime, ImportStatus.Outcome.SUCCESS, null, type, digest);
+    }
+
+    @Override
+    @Transactional(value = "haibaTransactionManager")
+    public void importEndedUnchanged(DateTime endTime, String type, String digest) {
+        log.debug("Import ended unchanged");
+        importEndedAt(endTime, ImportStatus.Outcome.UNCHANGED, null, type, digest);
     }
 
     @Override
@@ -79,10 +92,36 @@ public class ImportStatusRepositoryJdbcImpl extends CommonDAO implements ImportS
         if (errorMessage != null && errorMessage.length() > 200) {
             errorMessage = errorMessage.substring(0, 200); // truncate to match db layout
         }
-        importEndedAt(endTime, ImportStatus.Outcome.FAILURE, errorMessage, type);
+        importEndedAt(endTime, ImportStatus.Outcome.FAILURE, errorMessage, type, null);
     }
 
-    private void importEndedAt(DateTime endTime, ImportStatus.Outcome outcome, String errorMessage, String type) {
+    @Override
+    @Transactional(value = "haibaTransactionManager")
+    public void importChanges(String type, int inserted, int updated, int deleted) {
+        Long newestOpenId = newestId(type);
+        if (newestOpenId == null) {
+            log.debug("it seems we do not have any open statuses, let's not update");
+            return;
+        }
+        haibaJdbcTemplate.update("UPDATE " + tableprefix
+                + "FGRImporterStatus SET RowsInserted=?, RowsUpdated=?, RowsDeleted=? WHERE Id=?", inserted, updated,
+                deleted, newestOpenId);
+    }
+
+    private void importEndedAt(DateTime endTime, ImportStatus.Outcome outcome, String errorMessage, String type,
+            String digest) {
+        Long newestOpenId = newestId(type);
+        if (newestOpenId == null) {
+            log.debug("it seems we do not have any open statuses, let's not update");
+            return;
+        }
+
+        haibaJdbcTemplate.update("UPDATE " + tableprefix
+                + "FGRImporterStatus SET Type=?, EndTime=?, Outcome=?, ErrorMessage=?, Digest=? WHERE Id=?", type,
+                endTime.toDate(), outcome.toString(), errorMessage, digest, newestOpenId);
+    }
+
+    private Long newestId(String type) {
         String sql = null;
         if (MYSQL.equals(getDialect())) {
             sql = "SELECT Id from FGRImporterStatus WHERE Type = ? ORDER BY StartTime DESC LIMIT 1";
@@ -90,17 +129,43 @@ public class ImportStatusRepositoryJdbcImpl extends CommonDAO implements ImportS
             // MSSQL
             sql = "SELECT Top 1 Id from " + tableprefix + "FGRImporterStatus WHERE Type = ? ORDER BY StartTime DESC";
         }
-        Long newestOpenId;
         try {
-            newestOpenId = haibaJdbcTemplate.queryForLong(sql, type);
+            return haibaJdbcTemplate.queryForLong(sql, type);
         } catch (EmptyResultDataAccessException e) {
-            log.debug("it seems we do not have any open statuses, let's not update");
-            return;
+            return null;
         }
+    }
 
-        haibaJdbcTemplate.update("UPDATE " + tableprefix
-                + "FGRImporterStatus SET Type=?, EndTime=?, Outcome=?, ErrorMessage=? WHERE Id=?", type,
-                endTime.toDate(), outcome.toString(), errorMessage, newestOpenId);
+    /*
+     * Only the newest finished run counts. After a failure the table may be cleared or half loaded, so the next run
+     * must load the file again even if it is the same
+     */
+    @Override
+    public String getLastSuccessfulDigest(String type) {
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "SELECT Outcome, Digest from FGRImporterStatus WHERE Type = ? AND Outcome IS NOT NULL"
+                    + " ORDER BY StartTime DESC LIMIT 1";
+        } else {
+            // MSSQL
+            sql = "SELECT Top 1 Outcome, Digest from " + tableprefix + "FGRImporterStatus WHERE Type = ?"
+                    + " AND Outcome IS NOT NULL ORDER BY StartTime DESC";
+        }
+        try {
+            return haibaJdbcTemplate.queryForObject(sql, new Object[] { type }, new RowMapper<String>() {
+                @Override
+                public String mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    String outcome = rs.getString("Outcome");
+                    if (ImportStatus.Outcome.SUCCESS.toString().equals(outcome)
+                            || ImportStatus.Outcome.UNCHANGED.toString().equals(outcome)) {
+                        return rs.getString("Digest");
+                    }
+                    return null;
+                }
+            });
+        } catch (EmptyResultDataAccessException ignored) {
+            return null;
+        }
     }
 
     @Override
@@ -158,9 +223,18 @@ public class ImportStatusRepositoryJdbcImpl extends CommonDAO implements ImportS
                 status.setOutcome(ImportStatus.Outcome.valueOf(dbOutcome));
             }
             status.setErrorMessage(rs.getString("ErrorMessage"));
+            status.setDigest(rs.getString("Digest"));
+            status.setRowsInserted(getInteger(rs, "RowsInserted"));
+            status.setRowsUpdated(getInteger(rs, "RowsUpdated"));
+            status.setRowsDeleted(getInteger(rs, "RowsDeleted"));
 
             return status;
         }
+
+        private Integer getInteger(ResultSet rs, String column) throws SQLException {
+            int value = rs.getInt(column);
+            return rs.wasNull() ? null : value;
+        }
     }
 
     public boolean isHAIBADBAlive() {
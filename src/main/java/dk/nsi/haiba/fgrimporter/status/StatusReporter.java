@@ -26,6 +26,8 @@
  */
 package dk.nsi.haiba.fgrimporter.status;
 
+import java.net.URI;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,8 +39,12 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import dk.nsi.haiba.fgrimporter.importer.ImportExecutor;
+import dk.nsi.haiba.fgrimporter.importer.ImportGraph;
+import dk.nsi.haiba.fgrimporter.importer.ImportJob;
+import dk.nsi.haiba.fgrimporter.importer.ImportJobs;
 
 /*
  * This class is responsible for showing a statuspage, this page contains information about the general health of the application.
@@ -54,6 +60,9 @@ public class StatusReporter {
     @Autowired
     ImportExecutor importExecutor;
 
+    @Autowired
+    ImportJobs importJobs;
+
     @Value("${cron.shak.import.job}")
     String shakcron;
     @Value("${cron.sks.import.job}")
@@ -66,6 +75,10 @@ public class StatusReporter {
 
     @RequestMapping(value = "/status")
     public ResponseEntity<String> reportStatus() {
+        ResponseEntity<String> started = startManual();
+        if (started != null) {
+            return started;
+        }
 
         HttpHeaders headers = new HttpHeaders();
         StringBuilder sb = new StringBuilder();
@@ -91,6 +104,14 @@ public class StatusReporter {
         manual = handleManual(ImportExecutor.SOR, request);
         HttpStatus sorStatus = buildBody(sb, ImportExecutor.SOR, manual, sorcron);
 
+        ImportGraph.Run graphRun = importExecutor.getLastGraphRun();
+        if (graphRun != null) {
+            sb.append("<br>");
+            sb.append("</br>------------------</br>");
+            sb.append("last import graph run: " + graphRun);
+            sb.append("</br>");
+        }
+
         if (shakStatus != HttpStatus.OK) {
             status = shakStatus;
         }
@@ -107,23 +128,57 @@ public class StatusReporter {
         return new ResponseEntity<String>(body, headers, status);
     }
 
+    /*
+     * Queues the import of a manual start, it runs on the manual import thread. The request is answered with a redirect
+     * to the page of the job, so reloading the page the browser ends up on does not queue the import again
+     */
+    private ResponseEntity<String> startManual() {
+        for (String type : new String[] { ImportExecutor.SHAK, ImportExecutor.SKS, ImportExecutor.SOR }) {
+            if ("true".equalsIgnoreCase(request.getParameter("manual_" + type))) {
+                ImportJob job = importJobs.submit(type);
+                HttpHeaders headers = new HttpHeaders();
+                headers.setLocation(URI.create(request.getRequestURL() + "/job?id=" + job.getId()));
+                return new ResponseEntity<String>(headers, HttpStatus.SEE_OTHER);
+            }
+        }
+        return null;
+    }
+
     private String handleManual(final String type, HttpServletRequest request) {
         String manual = request.getParameter("manual_" + type);
         if (manual == null || manual.trim().length() == 0) {
             // no value set, use default set in the import executor
             manual = "" + importExecutor.isManualOverride(type);
         } else {
-            // manual flag is set on the request
-            if (manual.equalsIgnoreCase("true")) {
-                // flag is true, start the importer in a new thread
-                importExecutor.runManual(type);
-            } else {
-                importExecutor.setManualOverride(type, false);
-            }
+            importExecutor.setManualOverride(type, false);
         }
         return manual;
     }
 
+    /**
+     * The progress of a manual import, by the job id shown on the status page.
+     */
+    @RequestMapping(value = "/status/job")
+    public ResponseEntity<String> reportJob(@RequestParam("id") String id) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        ImportJob job = importJobs.get(id);
+        if (job == null) {
+            return new ResponseEntity<String>("Unknown job " + id + "\n", headers, HttpStatus.NOT_FOUND);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("job: ").append(job.getId()).append("\n");
+        sb.append("type: ").append(job.getType()).append("\n");
+        sb.append("phase: ").append(job.getPhase()).append("\n");
+        sb.append("records: ").append(job.getRecords()).append("\n");
+        sb.append("elapsed ms: ").append(job.getElapsedMillis()).append("\n");
+        sb.append("records per second: ").append(job.getThroughput()).append("\n");
+        if (job.getError() != null) {
+            sb.append("error: ").append(job.getError()).append("\n");
+        }
+        return new ResponseEntity<String>(sb.toString(), headers, HttpStatus.OK);
+    }
+
     private HttpStatus buildBody(StringBuilder sb, String type, String manual, String cron) {
         HttpStatus returnValue = HttpStatus.OK;
         try {
@@ -148,10 +203,16 @@ public class StatusReporter {
 
         String url = request.getRequestURL().toString();
 
-        sb.append("<a href=\"" + url + "?manual_" + type + "=true\">Manual start importer</a>");
-        sb.append("</br>");
+        sb.append("<form method=\"post\" action=\"" + url + "\"><input type=\"hidden\" name=\"manual_" + type
+                + "\" value=\"true\"><input type=\"submit\" value=\"Manual start importer\"></form>");
         sb.append("<a href=\"" + url + "?manual_" + type + "=false\">Scheduled start importer</a>");
         sb.append("</br>");
+        ImportJob job = importJobs.latest(type);
+        if (job != null) {
+            sb.append("manual job: <a href=\"" + url + "/job?id=" + job.getId() + "\">" + job.getId() + "</a> "
+                    + job.getPhase());
+            sb.append("</br>");
+        }
         if ("true".equalsIgnoreCase(manual)) {
             sb.append("status: MANUAL");
         } else {
@@ -0,0 +1,200 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Decodes yyyyMMdd and yyyy-MM-dd dates by digit arithmetic into epoch days, the number of days since 1970-01-01.
+ * <p/>
+ * The date of an epoch day is midnight in the default time zone. Its millis are computed with a calendar once and kept
+ * in a bounded cache, as the data sets repeat a small set of dates (25000101, the first of a year) many times. Days
+ * are shifted by adding to the epoch day. A new Date is returned for every value, as Date is mutable.
+ */
+public final class DateCodec {
+    public static final String BASIC_PATTERN = "yyyyMMdd";
+    public static final String ISO_PATTERN = "yyyy-MM-dd";
+
+    // a power of two. Consecutive days do not collide for 11 years
+    private static final int CACHE_SIZE = 4096;
+    private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+    private DateCodec() {
+    }
+
+    /**
+     * @return the epoch day of the date
+     * @throws IllegalArgumentException if the fields are not a valid date
+     */
+    public static int epochDay(int year, int month, int day) {
+        if (!isValid(year, month, day)) {
+            throw new IllegalArgumentException("not a valid date: " + year + "-" + month + "-" + day);
+        }
+        // days from civil, counting years from March so the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the epoch day of the yyyyMMdd date at offset
+     * @throws IllegalArgumentException if it is not a valid date
+     */
+    public static int parseBasic(CharSequence s, int offset) {
+        if (s.length() < offset + 8) {
+            throw new IllegalArgumentException("not a yyyyMMdd date: " + s);
+        }
+        return epochDay(digits(s, offset, offset + 4), digits(s, offset + 4, offset + 6),
+                digits(s, offset + 6, offset + 8));
+    }
+
+    /**
+     * @return midnight of the epoch day in the default time zone
+     */
+    public static Date toDate(int epochDay) {
+        return new Date(toMillis(epochDay));
+    }
+
+    public static long toMillis(int epochDay) {
+        int slot = epochDay & (CACHE_SIZE - 1);
+        Entry entry = cache[slot];
+        if (entry == null || entry.epochDay != epochDay) {
+            entry = new Entry(epochDay, localMidnight(epochDay));
+            cache[slot] = entry;
+        }
+        return entry.millis;
+    }
+
+    /**
+     * Parses like {@link SimpleDateFormat#parse(String)} with the pattern. Values of the form of
+     * {@link #BASIC_PATTERN} or {@link #ISO_PATTERN} are decoded here, anything else, including dates that are only
+     * valid to the lenient SimpleDateFormat, is left to a SimpleDateFormat.
+     */
+    public static Date parse(String value, String pattern) throws ParseException {
+        int epochDay = Integer.MIN_VALUE;
+        if (BASIC_PATTERN.equals(pattern)) {
+            epochDay = decode(value, 4, 6, 8);
+        } else if (ISO_PATTERN.equals(pattern) && value.length() >= 10 && value.charAt(4) == '-'
+                && value.charAt(7) == '-') {
+            epochDay = decode(value, 5, 8, 10);
+        }
+        if (epochDay != Integer.MIN_VALUE) {
+            return toDate(epochDay);
+        }
+        return new SimpleDateFormat(pattern).parse(value);
+    }
+
+    /*
+     * The epoch day of year [0, 4), month [monthStart, monthStart + 2) and day [dayStart, dayStart + 2), if they are
+     * digits forming a valid date not followed by more digits. Integer.MIN_VALUE otherwise
+     */
+    private static int decode(String value, int monthStart, int dayStart, int end) {
+        if (value.length() < end || (value.length() > end && Character.isDigit(value.charAt(end)))) {
+            return Integer.MIN_VALUE;
+        }
+        int year = digitsOrMinus(value, 0, 4);
+        int month = digitsOrMinus(value, monthStart, monthStart + 2);
+        int day = digitsOrMinus(value, dayStart, dayStart + 2);
+        if (year < 0 || month < 0 || day < 0 || !isValid(year, month, day)) {
+            return Integer.MIN_VALUE;
+        }
+        return epochDay(year, month, day);
+    }
+
+    private static int digits(CharSequence s, int from, int to) {
+        int value = digitsOrMinus(s, from, to);
+        if (value < 0) {
+            throw new IllegalArgumentException("not a number: " + s.subSequence(from, to));
+        }
+        return value;
+    }
+
+    private static int digitsOrMinus(CharSequence s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isValid(int year, int month, int day) {
+        return year >= 0 && year <= 9999 && month >= 1 && month <= 12 && day >= 1
+                && day <= daysInMonth(year, month);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    private static long localMidnight(int epochDay) {
+        // civil from days, the inverse of epochDay
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static class Entry {
+        private final int epochDay;
+        private final long millis;
+
+        private Entry(int epochDay, long millis) {
+            this.epochDay = epochDay;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.util.Date;
+
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+
+/**
+ * The identities of SKS lines, see {@link SKSLine#equals(Object)}, without the lines themselves. Each line is kept as
+ * its hash, type, code and valid from and to times in open addressing tables like those of {@link RecordSet}, so a
+ * line can be dropped as soon as it is handed on. The type and code Strings are shared with the line, the text and
+ * the line object are not referenced. All lines must be of the same class.
+ */
+public class LineKeySet {
+    private static final int INITIAL_CAPACITY = 1024;
+    // a line without a date is keyed by a time no date in an SKS file has
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    // each slot holds 1 + the index of its key, 0 marks a free slot
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private String[] types = new String[INITIAL_CAPACITY / 2];
+    private String[] codes = new String[INITIAL_CAPACITY / 2];
+    private long[] validFroms = new long[INITIAL_CAPACITY / 2];
+    private long[] validTos = new long[INITIAL_CAPACITY / 2];
+    private int size;
+
+    /**
+     * @return false if an equal line was added before, the line is not added then
+     */
+    public boolean add(SKSLine line) {
+        String type = line.getType();
+        String code = line.getCode();
+        long validFrom = time(line.getValidFrom());
+        long validTo = time(line.getValidTo());
+        int hash = spread(line.hashCode());
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (int index; (index = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            int i = index - 1;
+            if (hashes[i] == hash && validFroms[i] == validFrom && validTos[i] == validTo && equal(codes[i], code)
+                    && equal(types[i], type)) {
+                return false;
+            }
+        }
+        if (size == hashes.length) {
+            grow();
+            return add(line);
+        }
+        hashes[size] = hash;
+        types[size] = type;
+        codes[size] = code;
+        validFroms[size] = validFrom;
+        validTos[size] = validTo;
+        slots[slot] = ++size;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Doubles the tables, the load factor of the slots stays at most 1/2
+     */
+    private void grow() {
+        int capacity = hashes.length * 2;
+        int[] newHashes = new int[capacity];
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        String[] newTypes = new String[capacity];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        String[] newCodes = new String[capacity];
+        System.arraycopy(codes, 0, newCodes, 0, size);
+        long[] newValidFroms = new long[capacity];
+        System.arraycopy(validFroms, 0, newValidFroms, 0, size);
+        long[] newValidTos = new long[capacity];
+        System.arraycopy(validTos, 0, newValidTos, 0, size);
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = newHashes[i] & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = i + 1;
+        }
+        hashes = newHashes;
+        types = newTypes;
+        codes = newCodes;
+        validFroms = newValidFroms;
+        validTos = newValidTos;
+        slots = newSlots;
+    }
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : NO_DATE;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /*
+     * As RecordSet.spread
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds XML element values to the setters of a class, the element name being the property name. The setter and the
+ * conversion of the text value are resolved once per element name when the binder is created, so binding an element
+ * is a map lookup instead of a scan of the declared methods of the class hierarchy.
+ * <p/>
+ * Supported property types are String, Long, Date (parsed with the date pattern of the binder) and Boolean. A binder
+ * holds no state of the parse, so one instance can be shared by all parsers of the class. The value is only turned
+ * into a String when the property is bound, so a parser can pass its reusable text buffer. String properties that
+ * repeat from element to element, like post codes, can be taken from a {@link StringPool}.
+ */
+public class PropertyBinder {
+    private final Map<String, Binding> bindings = new HashMap<String, Binding>();
+    // the argument array of the setter call, reused instead of a varargs array per call
+    private final ThreadLocal<Object[]> args = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[1];
+        }
+    };
+
+    public PropertyBinder(Class<?> type, String datePattern) {
+        this(type, datePattern, null);
+    }
+
+    /**
+     * @param strings the pool of the values of the pooled properties
+     * @param pooledProperties String properties whose values are taken from the pool
+     */
+    public PropertyBinder(Class<?> type, String datePattern, StringPool strings, String... pooledProperties) {
+        Converter dateConverter = new DateConverter(datePattern);
+        Converter pooled = strings != null ? new PooledConverter(strings) : STRING;
+        Set<String> pooledNames = new HashSet<String>(Arrays.asList(pooledProperties));
+        // a setter in a subclass hides the one in its superclass
+        for (Class<?> target = type; target != null; target = target.getSuperclass()) {
+            for (Method method : target.getDeclaredMethods()) {
+                String name = method.getName();
+                if (name.startsWith("set") && method.getParameterTypes().length == 1) {
+                    String property = name.substring(3);
+                    if (!bindings.containsKey(property)) {
+                        Converter converter = converterFor(property, method, dateConverter);
+                        if (converter == STRING && pooledNames.contains(property)) {
+                            converter = pooled;
+                        }
+                        bindings.put(property, new Binding(method, converter));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the property of the target, if the class has a setter for it.
+     *
+     * @return true if the property was set
+     * @throws Exception if the value cannot be converted to the type of the setter, or the setter fails
+     */
+    public boolean set(Object target, String property, CharSequence value) throws Exception {
+        Binding binding = bindings.get(property);
+        if (binding == null) {
+            return false;
+        }
+        Object[] arg = args.get();
+        arg[0] = binding.converter.convert(value);
+        try {
+            binding.method.invoke(target, arg);
+        } finally {
+            arg[0] = null;
+        }
+        return true;
+    }
+
+    private static Converter converterFor(String property, Method method, Converter dateConverter) {
+        Class<?> param = method.getParameterTypes()[0];
+        if (param.isAssignableFrom(String.class)) {
+            return STRING;
+        } else if (param.isAssignableFrom(Long.class)) {
+            return LONG;
+        } else if (param.isAssignableFrom(Date.class)) {
+            return dateConverter;
+        } else if (param.isAssignableFrom(Boolean.class)) {
+            return BOOLEAN;
+        }
+        // only fails if the element is actually present in the data
+        return new UnsupportedConverter("Unsupported datatype for property " + property
+                + ", expected datatype was " + param.getCanonicalName());
+    }
+
+    private static class Binding {
+        private final Method method;
+        private final Converter converter;
+
+        private Binding(Method method, Converter converter) {
+            this.method = method;
+            this.converter = converter;
+        }
+    }
+
+    private interface Converter {
+        Object convert(CharSequence value) throws Exception;
+    }
+
+    private static final Converter STRING = new Converter() {
+        @Override
+        public Object convert(CharSequence value) {
+            return value.toString();
+        }
+    };
+
+    private static final Converter LONG = new Converter() {
+        @Override
+        public Object convert(CharSequence value) {
+            return Long.parseLong(value.toString());
+        }
+    };
+
+    private static final Converter BOOLEAN = new Converter() {
+        @Override
+        public Object convert(CharSequence value) {
+            return Boolean.valueOf(value.toString());
+        }
+    };
+
+    private static class DateConverter implements Converter {
+        private final String pattern;
+
+        private DateConverter(String pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public Object convert(CharSequence value) throws Exception {
+            return DateCodec.parse(value.toString(), pattern);
+        }
+    }
+
+    private static class PooledConverter implements Converter {
+        private final StringPool strings;
+
+        private PooledConverter(StringPool strings) {
+            this.strings = strings;
+        }
+
+        @Override
+        public Object convert(CharSequence value) {
+            return strings.intern(value);
+        }
+    }
+
+    private static class UnsupportedConverter implements Converter {
+        private final String message;
+
+        private UnsupportedConverter(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object convert(CharSequence value) throws Exception {
+            throw new Exception(message);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of records by equals/hashCode in open addressing tables, an int array of hash codes beside an array of the
+ * records. Unlike a HashSet there is no entry object per record, and a probe compares the stored hash codes before
+ * calling equals. Records are kept in insertion order. Removal is not supported.
+ */
+public class RecordSet<T> extends AbstractSet<T> {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // each slot holds 1 + the index of its record, 0 marks a free slot
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private Object[] records = new Object[INITIAL_CAPACITY / 2];
+    private int size;
+
+    /**
+     * @return false if the set already holds an equal record, which is not added then
+     */
+    @Override
+    public boolean add(T record) {
+        int hash = spread(record.hashCode());
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (int index; (index = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[index - 1] == hash && record.equals(records[index - 1])) {
+                return false;
+            }
+        }
+        if (size == records.length) {
+            grow();
+            add(record);
+            return true;
+        }
+        hashes[size] = hash;
+        records[size] = record;
+        slots[slot] = ++size;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        int hash = spread(o.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask, index; (index = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[index - 1] == hash && o.equals(records[index - 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        slots = new int[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY / 2];
+        records = new Object[INITIAL_CAPACITY / 2];
+        size = 0;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (T) records[next++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Doubles the tables, the load factor of the slots stays at most 1/2
+     */
+    private void grow() {
+        int[] newHashes = new int[hashes.length * 2];
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        Object[] newRecords = new Object[records.length * 2];
+        System.arraycopy(records, 0, newRecords, 0, size);
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = newHashes[i] & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = i + 1;
+        }
+        hashes = newHashes;
+        records = newRecords;
+        slots = newSlots;
+    }
+
+    /*
+     * Spreads the bits of hash codes that differ little, like those of dates and short codes
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
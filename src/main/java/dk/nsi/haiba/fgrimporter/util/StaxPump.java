@@ -0,0 +1,196 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.io.InputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Drives a SAX handler from a StAX pull parser.
+ * <p/>
+ * Text is handed to {@link DefaultHandler#characters(char[], int, int)} straight from the buffer of the reader, and
+ * element names are the local names from the symbol table of the reader, so no Strings are created for elements the
+ * handler does not use. The qName argument is the local name, without prefix. Attributes are read from the reader
+ * when the handler asks for them.
+ * <p/>
+ * The stream is not closed.
+ */
+public class StaxPump {
+    private final XMLStreamReader reader;
+    private final DefaultHandler handler;
+    private final Attributes attributes;
+
+    private StaxPump(XMLStreamReader reader, DefaultHandler handler) {
+        this.reader = reader;
+        this.handler = handler;
+        this.attributes = new ReaderAttributes(reader);
+    }
+
+    public static void parse(InputStream is, DefaultHandler handler) throws SAXException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+            new StaxPump(reader, handler).run();
+        } catch (XMLStreamException e) {
+            throw new SAXException(e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private void run() throws XMLStreamException, SAXException {
+        handler.startDocument();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                handler.startElement(uri(reader.getNamespaceURI()), reader.getLocalName(), reader.getLocalName(),
+                        attributes);
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                handler.endElement(uri(reader.getNamespaceURI()), reader.getLocalName(), reader.getLocalName());
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                handler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            default:
+                break;
+            }
+        }
+        handler.endDocument();
+    }
+
+    private static String uri(String uri) {
+        return uri != null ? uri : "";
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing to do, the reader does not own the stream
+            }
+        }
+    }
+
+    /*
+     * The attributes of the current start element, read from the reader on demand
+     */
+    private static class ReaderAttributes implements Attributes {
+        private final XMLStreamReader reader;
+
+        private ReaderAttributes(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int getLength() {
+            return reader.getAttributeCount();
+        }
+
+        @Override
+        public String getURI(int index) {
+            return index < 0 || index >= getLength() ? null : uri(reader.getAttributeNamespace(index));
+        }
+
+        @Override
+        public String getLocalName(int index) {
+            return index < 0 || index >= getLength() ? null : reader.getAttributeLocalName(index);
+        }
+
+        @Override
+        public String getQName(int index) {
+            if (index < 0 || index >= getLength()) {
+                return null;
+            }
+            QName name = reader.getAttributeName(index);
+            String prefix = name.getPrefix();
+            return prefix == null || prefix.length() == 0 ? name.getLocalPart() : prefix + ":" + name.getLocalPart();
+        }
+
+        @Override
+        public String getType(int index) {
+            return index < 0 || index >= getLength() ? null : reader.getAttributeType(index);
+        }
+
+        @Override
+        public String getValue(int index) {
+            return index < 0 || index >= getLength() ? null : reader.getAttributeValue(index);
+        }
+
+        @Override
+        public int getIndex(String uri, String localName) {
+            for (int i = 0; i < getLength(); i++) {
+                if (getURI(i).equals(uri) && getLocalName(i).equals(localName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int getIndex(String qName) {
+            for (int i = 0; i < getLength(); i++) {
+                if (getQName(i).equals(qName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String getType(String uri, String localName) {
+            return getType(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        @Override
+        public String getValue(String uri, String localName) {
+            return getValue(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool of canonical Strings for field values that repeat from line to line, like record types, post codes
+ * and district names. A value is looked up by its characters, so a parser can pass its text buffer or a view of the
+ * line, and a String is only created when the value is not pooled.
+ * <p/>
+ * The pool is a direct mapped table: each value has one slot by its hash code, and a value that is not pooled
+ * replaces the one in its slot. The pool never holds more than its capacity and keeps the recently seen values, at
+ * the price of a miss now and then when two frequent values share a slot. Values longer than the max length are
+ * never pooled. The pool can be shared by threads; a race for a slot only costs a miss.
+ */
+public class StringPool {
+    private final AtomicReferenceArray<String> slots;
+    private final int maxLength;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param maxLength the length of the longest value to pool
+     */
+    public StringPool(int capacity, int maxLength) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<String>(size);
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the pooled String with the characters of the value, or a new String of them. null for null
+     */
+    public String intern(CharSequence value) {
+        if (value == null) {
+            return null;
+        }
+        int length = value.length();
+        if (length > maxLength) {
+            return value.toString();
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (slots.length() - 1);
+        String pooled = slots.get(slot);
+        if (pooled != null && pooled.hashCode() == hash && contentEquals(pooled, value)) {
+            hits.incrementAndGet();
+            return pooled;
+        }
+        String s = value.toString();
+        slots.lazySet(slot, s);
+        misses.incrementAndGet();
+        return s;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of the lookups that returned a pooled String, 0 if there were none
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "StringPool [hits=" + getHits() + ", misses=" + getMisses() + ", hitRate="
+                + Math.round(getHitRate() * 100) + "%]";
+    }
+
+    private static boolean contentEquals(String pooled, CharSequence value) {
+        int length = value.length();
+        if (pooled.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pooled.charAt(i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -29,12 +29,8 @@ package dk.nsi.haiba.fgrimporter.util;
 import java.util.Calendar;
 import java.util.Date;
 
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
-
 public class Util {
     public static final Date THE_END_OF_TIME = toDate(2999, 12, 31);
-    private static final DateTimeFormatter dateFormat = ISODateTimeFormat.basicDate();
 
     public static Date toDate(int year, int month, int date) {
         Calendar cal = Calendar.getInstance();
@@ -44,16 +40,11 @@ public class Util {
     }
 
     public static Date parseValidTo(String line) {
-        // ValidTo is inclusive
-        Date validToInc = dateFormat.parseDateTime(line.substring(39, 47)).toDate();
-        Calendar c = Calendar.getInstance();
-        c.setTime(validToInc);
-        // Add a day because validTo day is inclusive
-        c.add(Calendar.DATE, 1);
-        return c.getTime();
+        // ValidTo is inclusive, add a day
+        return DateCodec.toDate(DateCodec.parseBasic(line, 39) + 1);
     }
 
     public static Date parseValidFrom(String line) {
-        return dateFormat.parseDateTime(line.substring(23, 31)).toDate();
+        return DateCodec.toDate(DateCodec.parseBasic(line, 23));
     }
 }
@@ -0,0 +1,129 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+
+public class TableDiffTest {
+    private static final Date FROM = new Date(0);
+
+    @Test
+    public void onlyTheRowsThatDifferAreChanged() {
+        List<SKSLine> current = lines(line("dia", "A01", "Same"), line("dia", "A03", "Old text"),
+                line("dia", "A02", "Removed"));
+        List<SKSLine> parsed = lines(line("dia", "A04", "New"), line("dia", "A01", "Same"),
+                line("dia", "A03", "New text"));
+
+        TableDiff<SKSLine> diff = new TableDiff<SKSLine>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).diff(current,
+                parsed);
+
+        assertEquals(Arrays.asList("A04"), codes(diff.getInserts()));
+        assertEquals(Arrays.asList("A03"), codes(diff.getUpdates()));
+        assertEquals("New text", diff.getUpdates().get(0).getText());
+        assertEquals(Arrays.asList("A02"), codes(diff.getDeletes()));
+        assertEquals(1, diff.getDeleted());
+    }
+
+    @Test
+    public void duplicateKeysAreResolved() {
+        // the table holds A01 twice, the file holds A02 twice
+        List<SKSLine> current = lines(line("dia", "A01", "Text"), line("dia", "A01", "Text"),
+                line("dia", "A02", "Text"));
+        List<SKSLine> parsed = lines(line("dia", "A01", "Text"), line("dia", "A02", "First"),
+                line("dia", "A02", "Last"));
+
+        TableDiff<SKSLine> diff = new TableDiff<SKSLine>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).diff(current,
+                parsed);
+
+        assertEquals(Arrays.asList("A01"), codes(diff.getDeletes()));
+        assertEquals(2, diff.getDeleted());
+        assertEquals(Arrays.asList("A01"), codes(diff.getInserts()));
+        assertEquals(Arrays.asList("A02"), codes(diff.getUpdates()));
+        assertEquals("Last", diff.getUpdates().get(0).getText());
+        assertEquals(1, diff.getDuplicates());
+    }
+
+    @Test
+    public void keysAreMatchedOnTypeAndValidFromToo() {
+        SKSLine later = line("dia", "A01", "Text");
+        later.setValidFrom(new Date(FROM.getTime() + 1));
+        TableDiff<SKSLine> diff = new TableDiff<SKSLine>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).diff(
+                lines(line("dia", "A01", "Text")), lines(line("pro", "A01", "Text"), later));
+
+        assertEquals(2, diff.getInserts().size());
+        assertEquals(1, diff.getDeleted());
+        assertEquals(0, diff.getUpdates().size());
+    }
+
+    @Test
+    public void tableRowsAreJoinedInAnyOrderAsTheyAreRead() {
+        TableDiff<SKSLine> diff = new TableDiff<SKSLine>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).parsed(lines(line(
+                "dia", "A02", "New text"), line("dia", "A01", "Text")));
+        diff.current(line("dia", "A09", "Removed"));
+        diff.current(line("dia", "A02", "Old text"));
+        diff.current(line("dia", "A09", "Removed"));
+        diff.current(line("dia", "A00", "Removed"));
+        diff.finish();
+
+        assertEquals(Arrays.asList("A01"), codes(diff.getInserts()));
+        assertEquals(Arrays.asList("A02"), codes(diff.getUpdates()));
+        assertEquals(Arrays.asList("A09", "A00"), codes(diff.getDeletes()));
+        assertEquals(3, diff.getDeleted());
+        assertEquals(4, diff.getRows());
+    }
+
+    private static SKSLine line(String type, String code, String text) {
+        SKSLine line = new SKSLine();
+        line.setType(type);
+        line.setCode(code);
+        line.setText(text);
+        line.setValidFrom(FROM);
+        line.setValidTo(new Date(Long.MAX_VALUE));
+        return line;
+    }
+
+    private static List<SKSLine> lines(SKSLine... lines) {
+        return new ArrayList<SKSLine>(Arrays.asList(lines));
+    }
+
+    private static List<String> codes(List<SKSLine> lines) {
+        List<String> codes = new ArrayList<String>();
+        for (SKSLine line : lines) {
+            codes.add(line.getCode());
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FileFetchTest {
+    private static final byte[] CONTENT = "afd1301011 content".getBytes();
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private HttpServer server;
+    private List<String> ifNoneMatch = new ArrayList<String>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/etag", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+                ifNoneMatch.add(condition);
+                if (ETAG.equals(condition)) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+                    send(exchange);
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/plain", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void notModifiedIsReturnedWhenTheValidatorsMatch() throws IOException {
+        URL url = url("/etag");
+        File destination = new File(tmpDir.getRoot(), "etag.txt");
+
+        FetchResult first = FileFetch.fetchWithDigest(url, destination, true);
+        assertTrue(first.isFetched());
+        assertEquals(CONTENT.length, destination.length());
+        FileFetch.storeValidators(url, destination, first);
+
+        FileUtils.deleteQuietly(destination);
+        FetchResult second = FileFetch.fetchWithDigest(url, destination, true);
+        assertTrue(second.isNotModified());
+        assertFalse(second.isFetched());
+        assertFalse(destination.exists());
+        assertEquals(ETAG, ifNoneMatch.get(1));
+    }
+
+    @Test
+    public void unconditionalFetchIgnoresStoredValidators() throws IOException {
+        URL url = url("/etag");
+        File destination = new File(tmpDir.getRoot(), "etag.txt");
+        FileFetch.storeValidators(url, destination, FileFetch.fetchWithDigest(url, destination, true));
+
+        FetchResult result = FileFetch.fetchWithDigest(url, destination, false);
+        assertTrue(result.isFetched());
+        assertNull(ifNoneMatch.get(1));
+    }
+
+    @Test
+    public void urlsWithoutValidatorsAreAlwaysFetched() throws IOException {
+        URL url = url("/plain");
+        File destination = new File(tmpDir.getRoot(), "plain.txt");
+        FetchResult first = FileFetch.fetchWithDigest(url, destination, true);
+        FileFetch.storeValidators(url, destination, first);
+
+        FetchResult second = FileFetch.fetchWithDigest(url, destination, true);
+        assertTrue(second.isFetched());
+        assertEquals(first.getDigest(), second.getDigest());
+    }
+
+    @Test
+    public void streamIsArchivedWhileItIsRead() throws IOException {
+        URL url = url("/plain");
+        File destination = new File(tmpDir.getRoot(), "stream.txt");
+        FetchStream stream = FileFetch.open(url, destination, true, false);
+        assertEquals('a', stream.read());
+        FetchResult result = stream.complete();
+
+        assertEquals(CONTENT.length, result.getBytes());
+        assertEquals(FileFetch.fetchWithDigest(url, new File(tmpDir.getRoot(), "copy.txt")).getDigest(),
+                result.getDigest());
+        assertEquals(new String(CONTENT), FileUtils.readFileToString(destination));
+    }
+
+    @Test
+    public void abortedStreamLeavesNoArchive() throws IOException {
+        File destination = new File(tmpDir.getRoot(), "aborted.txt");
+        FetchStream stream = FileFetch.open(url("/plain"), destination, true, false);
+        stream.read();
+        stream.close();
+
+        assertFalse(destination.exists());
+        assertEquals(0, tmpDir.getRoot().list().length);
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static void send(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, CONTENT.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(CONTENT);
+        os.close();
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.apache.commons.io.FileUtils.toFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import dk.nsi.haiba.fgrimporter.dao.SKSDAO;
+import dk.nsi.haiba.fgrimporter.dao.TableDiff;
+import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+import dk.nsi.haiba.fgrimporter.status.ImportStatusRepository;
+
+public class ImportExecutorTest {
+    private static String completeTxt = "data/sks/SHAKCOMPLETE.TXT";
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final CountingDAO dao = new CountingDAO();
+    private ImportExecutor importExecutor;
+    private SKSParser<Organisation> parser;
+    private File file;
+
+    @Before
+    public void setup() {
+        importExecutor = new ImportExecutor();
+        importExecutor.batchSize = 100;
+        importExecutor.streamingBufferSize = 100;
+        parser = new SKSParser<Organisation>(Organisation.class, new String[] { Organisation.RECORD_TYPE_DEPARTMENT,
+                Organisation.RECORD_TYPE_HOSPITAL });
+        parser.setParseThreads(2);
+        parser.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.incrementAndGet();
+                executor.execute(command);
+            }
+        });
+        file = toFile(getClass().getClassLoader().getResource(completeTxt));
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void aDownloadedFileIsParsedOnTheParseThreads() {
+        long stored = importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null);
+
+        assertTrue(submitted.get() > 1);
+        assertEquals(sequentialCount(), stored);
+        assertEquals(stored, dao.saved);
+    }
+
+    @Test
+    public void aStreamedLoadOfADownloadedFileIsParsedOnTheParseThreads() {
+        importExecutor.streaming = true;
+        long stored = importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null);
+
+        assertTrue(submitted.get() > 1);
+        assertEquals(sequentialCount(), stored);
+        assertEquals(stored, dao.saved);
+    }
+
+    @Test
+    public void everyLoadOfADownloadedFileReadsTheMappedFile() {
+        importExecutor.statusRepo = mock(ImportStatusRepository.class);
+        parser = new MappedOnlyParser();
+        long expected = sequentialCount();
+
+        assertEquals(expected, importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null));
+        importExecutor.streaming = true;
+        assertEquals(expected, importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null));
+        importExecutor.streaming = false;
+        importExecutor.columnar = true;
+        assertEquals(expected, importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null));
+        importExecutor.columnar = false;
+        importExecutor.diff = true;
+        assertEquals(expected, importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null));
+        importExecutor.diff = false;
+        parser.setDelta(true);
+        assertTrue(importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null) > 0);
+    }
+
+    @Test
+    public void aColumnarLoadIsCommittedInChunksOfCommitRows() {
+        importExecutor.columnar = true;
+        importExecutor.commitRows = 100;
+        importExecutor.transactionManager = mock(PlatformTransactionManager.class);
+        long stored = importExecutor.loadTable(dao, parser, ImportExecutor.LoadInput.of(file), "shak", null);
+
+        assertEquals(sequentialCount(), stored);
+        assertEquals(stored, dao.saved);
+        assertEquals((stored + 99) / 100, dao.columnBatches);
+        verify(importExecutor.transactionManager, times(dao.columnBatches)).commit(
+                Matchers.any(TransactionStatus.class));
+    }
+
+    private long sequentialCount() {
+        SKSParser<Organisation> sequential = new SKSParser<Organisation>(Organisation.class, new String[] {
+                Organisation.RECORD_TYPE_DEPARTMENT, Organisation.RECORD_TYPE_HOSPITAL });
+        sequential.process(file, "");
+        return sequential.getEntities().size();
+    }
+
+    /*
+     * Fails the load if it reads the file as a stream instead of through the memory mapped scanner
+     */
+    private static class MappedOnlyParser extends SKSParser<Organisation> {
+        MappedOnlyParser() {
+            super(Organisation.class, new String[] { Organisation.RECORD_TYPE_DEPARTMENT,
+                    Organisation.RECORD_TYPE_HOSPITAL });
+        }
+
+        @Override
+        public void process(InputStream is, String name, String identifier) {
+            throw new AssertionError("streamed");
+        }
+
+        @Override
+        public long process(InputStream is, RecordSink<Organisation> sink) {
+            throw new AssertionError("streamed");
+        }
+
+        @Override
+        public SKSColumns processColumns(InputStream is) {
+            throw new AssertionError("streamed");
+        }
+    }
+
+    private static class CountingDAO implements SKSDAO<Organisation> {
+        private long saved;
+        private int columnBatches;
+
+        @Override
+        public void clearTable() {
+            saved = 0;
+        }
+
+        @Override
+        public void saveEntity(Organisation t) {
+            saved++;
+        }
+
+        @Override
+        public void saveEntities(Collection<Organisation> entities, Date created) {
+            saved += entities.size();
+        }
+
+        @Override
+        public void saveColumns(SKSColumns columns, Date created) {
+            saveColumns(columns, 0, columns.size(), created);
+        }
+
+        @Override
+        public void saveColumns(SKSColumns columns, int from, int to, Date created) {
+            saved += to - from;
+            columnBatches++;
+        }
+
+        @Override
+        public void applyDelta(Collection<Organisation> entities, Date created) {
+            saved += entities.size();
+        }
+
+        @Override
+        public TableDiff<Organisation> sync(Collection<Organisation> entities, Date created) {
+            return new TableDiff<Organisation>(SKSLine.KEY_ORDER, SKSLine.VALUE_ORDER).diff(
+                    new ArrayList<Organisation>(), new ArrayList<Organisation>(entities));
+        }
+
+        @Override
+        public void beginShadowLoad() {
+        }
+
+        @Override
+        public void swapShadowTable() {
+        }
+
+        @Override
+        public void discardShadowLoad() {
+        }
+    }
+}
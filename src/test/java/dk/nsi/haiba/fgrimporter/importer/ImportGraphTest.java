@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.importer.ImportGraph.Outcome;
+
+public class ImportGraphTest {
+    private final Executor threads = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    private final List<String> ran = new CopyOnWriteArrayList<String>();
+
+    @Test
+    public void independentNodesRunInParallel() {
+        // each node waits for the other to start, which only completes if they run at the same time
+        final CountDownLatch started = new CountDownLatch(2);
+        ImportGraph.Task task = new ImportGraph.Task() {
+            @Override
+            public Outcome run(boolean upstreamChanged) {
+                started.countDown();
+                try {
+                    return started.await(5, TimeUnit.SECONDS) ? Outcome.CHANGED : Outcome.FAILED;
+                } catch (InterruptedException e) {
+                    return Outcome.FAILED;
+                }
+            }
+        };
+        ImportGraph.Run run = new ImportGraph().add("shak", task).add("sks", task).run(threads);
+
+        assertEquals(Outcome.CHANGED, run.getOutcome("shak"));
+        assertEquals(Outcome.CHANGED, run.getOutcome("sks"));
+    }
+
+    @Test
+    public void downstreamNodesAreToldWhetherTheirUpstreamChanged() {
+        ImportGraph.Run run = new ImportGraph().add("shak", node("shak", Outcome.UNCHANGED))
+                .add("sor", node("sor", Outcome.UNCHANGED), "shak").add("sks", node("sks", Outcome.CHANGED))
+                .add("late", node("late", Outcome.UNCHANGED), "sor", "sks").run(threads);
+
+        assertTrue(ran.indexOf("shak false") < ran.indexOf("sor false"));
+        assertTrue(ran.contains("late true"));
+        assertEquals(Outcome.UNCHANGED, run.getOutcome("late"));
+    }
+
+    @Test
+    public void nodesDownstreamOfAFailureAreSkipped() {
+        ImportGraph.Task failing = new ImportGraph.Task() {
+            @Override
+            public Outcome run(boolean upstreamChanged) {
+                throw new IllegalStateException("shak import failed");
+            }
+        };
+        ImportGraph.Run run = new ImportGraph().add("shak", failing).add("shakregion", node("shakregion",
+                Outcome.CHANGED), "shak").add("sor", node("sor", Outcome.CHANGED), "shakregion")
+                .add("sks", node("sks", Outcome.CHANGED)).run(threads);
+
+        assertEquals(Outcome.FAILED, run.getOutcome("shak"));
+        assertEquals(Outcome.SKIPPED, run.getOutcome("shakregion"));
+        assertEquals(Outcome.SKIPPED, run.getOutcome("sor"));
+        assertEquals(Outcome.CHANGED, run.getOutcome("sks"));
+        assertEquals(Arrays.asList("sks false"), ran);
+    }
+
+    @Test
+    public void theCriticalPathIsTheChainThatEndedLast() {
+        ImportGraph.Run run = new ImportGraph().add("shak", sleeping(100)).add("sor", sleeping(100), "shak")
+                .add("sks", sleeping(50)).run(threads);
+
+        assertEquals(Arrays.asList("shak", "sor"), run.getCriticalPath());
+        assertTrue(run.getCriticalPathMillis() >= 200);
+        assertTrue(run.getCriticalPathMillis() <= run.getElapsedMillis());
+        assertTrue(run.toString().contains("critical path shak > sor"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependenciesMustBeAddedFirst() {
+        new ImportGraph().add("sor", node("sor", Outcome.CHANGED), "shak");
+    }
+
+    @Test
+    public void anEmptyGraphHasNoCriticalPath() {
+        ImportGraph.Run run = new ImportGraph().run(threads);
+
+        assertFalse(run.getCriticalPath().iterator().hasNext());
+        assertEquals(0, run.getCriticalPathMillis());
+    }
+
+    private ImportGraph.Task node(final String name, final Outcome outcome) {
+        return new ImportGraph.Task() {
+            @Override
+            public Outcome run(boolean upstreamChanged) {
+                ran.add(name + " " + upstreamChanged);
+                return outcome;
+            }
+        };
+    }
+
+    private ImportGraph.Task sleeping(final long millis) {
+        return new ImportGraph.Task() {
+            @Override
+            public Outcome run(boolean upstreamChanged) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    return Outcome.FAILED;
+                }
+                return Outcome.CHANGED;
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.status.ImportLeaseRepository;
+
+public class ImportGuardTest {
+    private final List<String> calls = new ArrayList<String>();
+    private boolean leaseFree = true;
+    private volatile boolean renewable = true;
+    private ImportGuard guard;
+
+    @Before
+    public void setup() {
+        guard = new ImportGuard();
+        guard.leases = new ImportLeaseRepository() {
+            @Override
+            public boolean acquire(String type, String owner, int leaseSeconds) {
+                calls.add("acquire " + type);
+                return leaseFree;
+            }
+
+            @Override
+            public boolean renew(String type, String owner, int leaseSeconds) {
+                return renewable;
+            }
+
+            @Override
+            public void release(String type, String owner) {
+                calls.add("release " + type);
+            }
+        };
+    }
+
+    @Test
+    public void aRunningTypeIsNotRunAgain() {
+        final boolean[] nested = new boolean[2];
+        assertTrue(guard.runExclusive(ImportExecutor.SKS, new Runnable() {
+            @Override
+            public void run() {
+                nested[0] = runOnOtherThread(ImportExecutor.SKS);
+                nested[1] = runOnOtherThread(ImportExecutor.SOR);
+            }
+        }));
+        assertFalse(nested[0]);
+        assertTrue(nested[1]);
+        assertTrue(guard.runExclusive(ImportExecutor.SKS, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void theLeaseIsHeldWhileTheImportRuns() {
+        guard.lease = true;
+        final List<String> ran = new ArrayList<String>();
+        Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                ran.add("run");
+            }
+        };
+        assertTrue(guard.runExclusive(ImportExecutor.SHAK, run));
+        leaseFree = false;
+        assertFalse(guard.runExclusive(ImportExecutor.SHAK, run));
+        assertEquals(1, ran.size());
+        assertEquals("[acquire shak, release shak, acquire shak]", calls.toString());
+    }
+
+    @Test
+    public void aRunThatLosesItsLeaseFails() {
+        guard.lease = true;
+        guard.leaseSeconds = 3;
+        renewable = false;
+        final List<String> failures = new ArrayList<String>();
+        assertTrue(guard.runExclusive(ImportExecutor.SKS, new Runnable() {
+            @Override
+            public void run() {
+                ImportGuard.checkLease();
+                ImportGuard.Lease lease = ImportGuard.currentLease();
+                // the first renewal is after a third of the lease
+                long timeout = System.currentTimeMillis() + 5000;
+                while (!lease.isLost() && System.currentTimeMillis() < timeout) {
+                    sleep(10);
+                }
+                try {
+                    ImportGuard.checkLease();
+                } catch (IllegalStateException e) {
+                    failures.add(e.getMessage());
+                }
+            }
+        }));
+        assertEquals("[lost the lease of the sks import]", failures.toString());
+        assertNull(ImportGuard.currentLease());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean runOnOtherThread(final String type) {
+        final boolean[] result = new boolean[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                result[0] = guard.runExclusive(type, new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            }
+        };
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return result[0];
+    }
+}
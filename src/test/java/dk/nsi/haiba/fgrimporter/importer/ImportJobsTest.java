@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.TaskExecutor;
+
+public class ImportJobsTest {
+    private final List<Runnable> queue = new ArrayList<Runnable>();
+    private final List<String> runs = new ArrayList<String>();
+    private ImportJobs jobs;
+
+    @Before
+    public void setup() {
+        jobs = new ImportJobs();
+        jobs.taskExecutor = new TaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                queue.add(task);
+            }
+        };
+        jobs.importExecutor = new ImportExecutor() {
+            @Override
+            public void runManual(String type) {
+                runs.add(type);
+                ImportJob.progress(ImportJob.Phase.STORING, 42);
+                if ("broken".equals(type)) {
+                    throw new RuntimeException("failed");
+                }
+                if ("unfetched".equals(type)) {
+                    ImportJob.failed("file not fetched");
+                    ImportJob.progress(ImportJob.Phase.STORING, 7);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void aTypeIsQueuedOnceUntilItsJobHasRun() {
+        ImportJob job = jobs.submit(ImportExecutor.SKS);
+        assertEquals(ImportJob.Phase.QUEUED, job.getPhase());
+        assertSame(job, jobs.submit(ImportExecutor.SKS));
+        ImportJob other = jobs.submit(ImportExecutor.SOR);
+        assertEquals(2, queue.size());
+
+        queue.remove(0).run();
+        assertEquals(ImportJob.Phase.DONE, job.getPhase());
+        assertEquals(42, job.getRecords());
+        assertSame(job, jobs.get(job.getId()));
+        assertEquals(ImportJob.Phase.QUEUED, other.getPhase());
+
+        assertNotSame(job, jobs.submit(ImportExecutor.SKS));
+        assertEquals(2, queue.size());
+        assertNull(jobs.get("unknown"));
+    }
+
+    @Test
+    public void aFailedImportEndsTheJob() {
+        ImportJob job = jobs.submit("broken");
+        queue.remove(0).run();
+        assertEquals(ImportJob.Phase.FAILED, job.getPhase());
+        assertEquals("failed", job.getError());
+        assertEquals(1, runs.size());
+        // progress outside of a job is ignored
+        ImportJob.progress(ImportJob.Phase.PARSING);
+        assertEquals(ImportJob.Phase.FAILED, job.getPhase());
+    }
+
+    @Test
+    public void aRecordedFailureEndsTheJobAsFailed() {
+        ImportJob job = jobs.submit("unfetched");
+        queue.remove(0).run();
+        assertEquals(ImportJob.Phase.FAILED, job.getPhase());
+        assertEquals("file not fetched", job.getError());
+        assertEquals(7, job.getRecords());
+    }
+}
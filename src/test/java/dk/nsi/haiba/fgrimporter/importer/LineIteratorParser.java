@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import dk.nsi.haiba.fgrimporter.model.Organisation;
+
+/**
+ * The parsing of SKSParser before the FixedWidthScanner, the reference the parser is tested and benchmarked against
+ */
+class LineIteratorParser {
+    private static final DateTimeFormatter BASIC_DATE = ISODateTimeFormat.basicDate();
+
+    private LineIteratorParser() {
+    }
+
+    static List<Organisation> parse(File file, String[] types) {
+        List<Organisation> records = new ArrayList<Organisation>();
+        try {
+            LineIterator lines = FileUtils.lineIterator(file, "ISO8859-15");
+            try {
+                while (lines.hasNext()) {
+                    String line = lines.next();
+                    String recordType = line.substring(0, 3);
+                    boolean parsable = false;
+                    for (String type : types) {
+                        parsable |= type.equalsIgnoreCase(recordType);
+                    }
+                    if (!parsable) {
+                        continue;
+                    }
+                    line.charAt(187);
+                    Organisation t = new Organisation();
+                    t.setType(recordType);
+                    t.setCode(line.substring(3, 23).trim());
+                    t.setValidFrom(BASIC_DATE.parseDateTime(line.substring(23, 31)).toDate());
+                    Calendar c = Calendar.getInstance();
+                    c.setTime(BASIC_DATE.parseDateTime(line.substring(39, 47)).toDate());
+                    c.add(Calendar.DATE, 1);
+                    t.setValidTo(c.getTime());
+                    t.setText(line.substring(47, 107).trim());
+                    records.add(t);
+                }
+            } finally {
+                LineIterator.closeQuietly(lines);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return records;
+    }
+}
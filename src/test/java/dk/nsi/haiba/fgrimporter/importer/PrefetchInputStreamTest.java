@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class PrefetchInputStreamTest {
+    @Test
+    public void readsTheSourceInOrder() throws Exception {
+        byte[] data = new byte[PrefetchInputStream.CHUNK_SIZE * 3 + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        StageMetrics fetch = new StageMetrics("fetch");
+        PrefetchInputStream in = new PrefetchInputStream(new ByteArrayInputStream(data), 2, "test", fetch,
+                new StageMetrics("parse"));
+        try {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        assertEquals(4, fetch.getItems());
+        assertTrue(fetch.getMaxQueueDepth() <= 2);
+    }
+
+    @Test
+    public void theFetchThreadWaitsForTheReader() throws Exception {
+        byte[] data = new byte[PrefetchInputStream.CHUNK_SIZE * 10];
+        StageMetrics fetch = new StageMetrics("fetch");
+        PrefetchInputStream in = new PrefetchInputStream(new ByteArrayInputStream(data), 2, "test", fetch,
+                new StageMetrics("parse"));
+        try {
+            assertEquals(0, in.read());
+            Thread.sleep(100);
+            // one chunk is being read, two are queued and the fetch thread blocks on the fourth
+            assertEquals(2, in.getQueueDepth());
+            assertEquals(3, fetch.getItems());
+            in.drain();
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        assertEquals(10, fetch.getItems());
+    }
+
+    @Test
+    public void aFailedFetchIsRethrownToTheReader() throws Exception {
+        InputStream failing = new InputStream() {
+            private int left = 10;
+
+            @Override
+            public int read() throws IOException {
+                if (left-- <= 0) {
+                    throw new IOException("connection reset");
+                }
+                return 'x';
+            }
+        };
+        PrefetchInputStream in = new PrefetchInputStream(failing, 2, "test", new StageMetrics("fetch"),
+                new StageMetrics("parse"));
+        try {
+            IOUtils.toByteArray(in);
+            fail("expected the fetch failure");
+        } catch (IOException e) {
+            assertEquals("connection reset", e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+}
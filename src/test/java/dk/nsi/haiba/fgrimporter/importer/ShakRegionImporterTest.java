@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.importer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.model.ShakRegion;
+import dk.nsi.haiba.fgrimporter.util.Util;
+
+public class ShakRegionImporterTest {
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" //
+            + "<SHAKregioner>" //
+            + "<SHAKregion><SHAKkode>1301011</SHAKkode><DatoFra>20040101</DatoFra><Datotil>25000101</Datotil>"
+            + "<Ejerforhold>01</Ejerforhold><Institutionsart>01</Institutionsart><Regionskode>1084</Regionskode>"
+            + "<Ukendt>ignored</Ukendt></SHAKregion>" //
+            + "<SHAKregion><SHAKkode>1301012</SHAKkode></SHAKregion>" //
+            + "</SHAKregioner>";
+
+    @Test
+    public void elementsAreBoundToTheSettersWithStax() throws Exception {
+        assertRegions(true);
+    }
+
+    @Test
+    public void elementsAreBoundToTheSettersWithSax() throws Exception {
+        assertRegions(false);
+    }
+
+    private void assertRegions(boolean stax) throws Exception {
+        ShakRegionImporter importer = new ShakRegionImporter();
+        importer.setStax(stax);
+        Collection<ShakRegion> regions = importer.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+
+        // the second region is incomplete and left out
+        assertEquals(1, regions.size());
+        List<ShakRegion> list = new ArrayList<ShakRegion>(regions);
+        ShakRegion region = list.get(0);
+        assertEquals("1301011", region.getSHAKkode());
+        assertEquals(Util.toDate(2004, 1, 1), region.getDatoFra());
+        assertEquals(Util.toDate(2500, 1, 1), region.getDatotil());
+        assertEquals("01", region.getEjerforhold());
+        assertEquals("01", region.getInstitutionsart());
+        assertEquals("1084", region.getRegionskode());
+    }
+}
@@ -26,23 +26,340 @@
  */
 package dk.nsi.haiba.fgrimporter.importer;
 
+import static org.apache.commons.io.FileUtils.toFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import dk.nsi.haiba.fgrimporter.model.Organisation;
+import dk.nsi.haiba.fgrimporter.model.SKSColumns;
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+import dk.nsi.haiba.fgrimporter.model.ShakRegion;
+import dk.nsi.haiba.fgrimporter.parser.ParserException;
+import dk.nsi.haiba.fgrimporter.parser.RecordSink;
+import dk.nsi.haiba.fgrimporter.util.Util;
 
 public class SksParserTest {
     private static String completeTxt = "data/sks/SHAKCOMPLETE.TXT";
 
-    private SKSParser importer;
+    private SKSParser<Organisation> importer;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
 
     @Rule
     public TemporaryFolder tmpDir = new TemporaryFolder();
 
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
     @Before
     public void setup() {
         importer = new SKSParser<Organisation>(Organisation.class, new String[] { Organisation.RECORD_TYPE_DEPARTMENT,
                 Organisation.RECORD_TYPE_HOSPITAL });
     }
+
+    @Test
+    public void streamingDeliversTheSameRecordsAsCollecting() {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        importer.process(file, "");
+        int collected = importer.getEntities().size();
+
+        CollectingSink<Organisation> collectingSink = new CollectingSink<Organisation>();
+        BufferedRecordSink<Organisation> sink = new BufferedRecordSink<Organisation>(collectingSink, 16, "test");
+        long streamed = importer.process(file, sink);
+        sink.close();
+
+        assertEquals(collected, streamed);
+        assertEquals(collected, collectingSink.records.size());
+        assertEquals(1, collectingSink.closed);
+    }
+
+    @Test
+    public void fieldsAreParsedLikeWithTheLineIterator() throws IOException {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        List<Organisation> expected = LineIteratorParser.parse(file, new String[] {
+                Organisation.RECORD_TYPE_DEPARTMENT, Organisation.RECORD_TYPE_HOSPITAL });
+
+        CollectingSink<Organisation> mapped = new CollectingSink<Organisation>();
+        importer.process(file, mapped);
+        assertSameRecords(expected, mapped.records);
+
+        CollectingSink<Organisation> streamed = new CollectingSink<Organisation>();
+        InputStream is = FileUtils.openInputStream(file);
+        try {
+            importer.process(is, streamed);
+        } finally {
+            is.close();
+        }
+        assertSameRecords(expected, streamed.records);
+    }
+
+    @Test
+    public void streamingDoesNotKeepTheRecords() {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        final List<WeakReference<Organisation>> handedOn = new ArrayList<WeakReference<Organisation>>();
+        final List<Boolean> collected = new ArrayList<Boolean>();
+        importer.process(file, new RecordSink<Organisation>() {
+            @Override
+            public void add(Organisation record) {
+                handedOn.add(new WeakReference<Organisation>(record));
+                if (handedOn.size() == 1000) {
+                    // the parse is still running, so only the duplicate check can hold on to the first records
+                    collected.add(isCollected(handedOn.get(0)));
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        assertEquals(Arrays.asList(true), collected);
+    }
+
+    @Test
+    public void parallelParseDeliversTheSameRecordsInOrder() {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        CollectingSink<Organisation> sequential = new CollectingSink<Organisation>();
+        importer.process(file, sequential);
+
+        importer.setParseThreads(3);
+        importer.setExecutor(executor);
+        CollectingSink<Organisation> parallel = new CollectingSink<Organisation>();
+        assertEquals(sequential.records.size(), importer.process(file, parallel));
+        assertSameRecords(sequential.records, parallel.records);
+    }
+
+    @Test
+    public void parallelParseWaitsForTheSink() {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        final AtomicInteger submitted = new AtomicInteger();
+        importer.setParseThreads(2);
+        importer.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.incrementAndGet();
+                executor.execute(command);
+            }
+        });
+        final List<Integer> submittedAtFirstRecord = new ArrayList<Integer>();
+        importer.process(file, new CollectingSink<Organisation>() {
+            @Override
+            public void add(Organisation record) {
+                if (records.isEmpty()) {
+                    submittedAtFirstRecord.add(submitted.get());
+                }
+                super.add(record);
+            }
+        });
+
+        // two ranges per thread are in flight, out of four per thread
+        assertEquals(Arrays.asList(4), submittedAtFirstRecord);
+        assertEquals(8, submitted.get());
+    }
+
+    @Test
+    public void oneRoutedPassFeedsEachTypeLikeItsOwnParse() {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        CollectingSink<Organisation> departments = new CollectingSink<Organisation>();
+        new SKSParser<Organisation>(Organisation.class, new String[] { Organisation.RECORD_TYPE_DEPARTMENT }).process(
+                file, departments);
+        CollectingSink<Organisation> hospitals = new CollectingSink<Organisation>();
+        new SKSParser<Organisation>(Organisation.class, new String[] { Organisation.RECORD_TYPE_HOSPITAL }).process(
+                file, hospitals);
+        CollectingSink<Organisation> both = new CollectingSink<Organisation>();
+        importer.process(file, both);
+
+        CollectingSink<Organisation> routedDepartments = new CollectingSink<Organisation>();
+        CollectingSink<Organisation> routedHospitals = new CollectingSink<Organisation>();
+        CollectingSink<Organisation> routedBoth = new CollectingSink<Organisation>();
+        long count = new SKSRouter()
+                .route(Organisation.class, routedDepartments, Arrays.asList(Organisation.RECORD_TYPE_DEPARTMENT))
+                .route(Organisation.class, routedHospitals, Arrays.asList(Organisation.RECORD_TYPE_HOSPITAL))
+                .route(Organisation.class, routedBoth,
+                        Arrays.asList(Organisation.RECORD_TYPE_DEPARTMENT, Organisation.RECORD_TYPE_HOSPITAL))
+                .process(file);
+
+        assertEquals(2 * both.records.size(), count);
+        assertSameRecords(departments.records, routedDepartments.records);
+        assertSameRecords(hospitals.records, routedHospitals.records);
+        assertSameRecords(both.records, routedBoth.records);
+    }
+
+    @Test
+    public void deltaRecordsCarryTheirOperationAndTheLastLineOfAKeyWins() throws IOException {
+        File file = tmpDir.newFile("shakdelta.txt");
+        FileUtils.writeLines(file, "ISO8859-15", Arrays.asList(deltaLine("afd1301011", "20000101", "Old", ' '),
+                deltaLine("afd1301011", "20040101", "Anæstesi", '1'), deltaLine("sgh1301", "19950101", "Gone", '2'),
+                deltaLine("afd1301011", "20040101", "Anæstesi-/operationsklinik", '3')), "\r\n");
+        importer.setDelta(true);
+        SKSDeltaSink<Organisation> delta = new SKSDeltaSink<Organisation>();
+        importer.process(file, delta);
+
+        assertEquals(3, delta.getLines());
+        List<Organisation> records = new ArrayList<Organisation>(delta.getRecords());
+        assertEquals(2, records.size());
+        assertEquals("sgh", records.get(0).getType());
+        assertEquals(SKSLine.OPERATION_DELETE, records.get(0).getOperation());
+        assertEquals("Anæstesi-/operationsklinik", records.get(1).getText());
+        assertEquals(SKSLine.OPERATION_UPDATE, records.get(1).getOperation());
+    }
+
+    @Test
+    public void repeatedLinesAreStoredOnceAndCounted() throws IOException {
+        File file = tmpDir.newFile("repeated.txt");
+        String line = deltaLine("afd1301011", "20040101", "Anæstesi", '1');
+        FileUtils.writeLines(file, "ISO8859-15", Arrays.asList(line, deltaLine("sgh1301", "19950101", "Sygehus", '1'),
+                line));
+        importer.process(file, "");
+        assertEquals(2, importer.getEntities().size());
+        assertEquals(1, importer.getDuplicates());
+
+        CollectingSink<Organisation> streamed = new CollectingSink<Organisation>();
+        assertEquals(2, importer.process(file, streamed));
+        assertEquals(2, streamed.records.size());
+        assertEquals(1, importer.getDuplicates());
+    }
+
+    @Test
+    public void columnsHoldTheSameLinesAsTheRecords() throws IOException {
+        File file = toFile(getClass().getClassLoader().getResource(completeTxt));
+        importer.process(file, "");
+        List<Organisation> records = new ArrayList<Organisation>(importer.getEntities());
+
+        SKSColumns columns = importer.processColumns(file);
+        assertEquals(records.size(), columns.size());
+        for (int row = 0; row < columns.size(); row++) {
+            Organisation record = records.get(row);
+            assertEquals(record.getType(), columns.getType(row));
+            assertEquals(record.getCode(), columns.getCode(row));
+            assertEquals(record.getText(), columns.getText(row));
+            assertEquals(record.getValidFrom(), columns.getValidFrom(row));
+            assertEquals(record.getValidTo(), columns.getValidTo(row));
+            assertEquals(row, columns.find(record.getType(), record.getCode(), columns.getValidFromDay(row)));
+        }
+        assertEquals(-1, columns.find(null, "no such code", columns.getValidFromDay(0)));
+
+        File repeated = tmpDir.newFile("repeated.txt");
+        String line = deltaLine("afd1301011", "20040101", "Anæstesi", '1');
+        FileUtils.writeLines(repeated, "ISO8859-15", Arrays.asList(line, line));
+        assertEquals(1, importer.processColumns(repeated).size());
+        assertEquals(1, importer.getDuplicates());
+    }
+
+    @Test
+    public void recordsAreEnrichedWithTheirRegion() throws IOException {
+        File file = tmpDir.newFile("regions.txt");
+        FileUtils.writeLines(file, "ISO8859-15", Arrays.asList(deltaLine("afd1301011", "20040101", "Anæstesi", '1'),
+                deltaLine("sgh1301", "19950101", "Sygehus", '1')));
+        ShakRegionIndex regions = new ShakRegionIndex(Arrays.asList(new ShakRegion("1301011", Util.toDate(2004, 1, 1),
+                Util.toDate(2500, 1, 1), "01", "02", "1084"), new ShakRegion("1301", Util.toDate(1995, 1, 1), Util
+                .toDate(2000, 1, 1), "01", "02", "1084")));
+        importer.setEnricher(regions);
+        importer.process(file, "");
+        List<Organisation> records = new ArrayList<Organisation>(importer.getEntities());
+
+        assertEquals("1084", records.get(0).getRegionskode());
+        assertEquals("02", records.get(0).getInstitutionsart());
+        // the period of the second region ends before the one of the record
+        assertNull(records.get(1).getRegionskode());
+        assertEquals(1, regions.getMatched());
+    }
+
+    @Test(expected = ParserException.class)
+    public void deletesAreRejectedOutsideDeltaMode() throws IOException {
+        File file = tmpDir.newFile("shakdelta.txt");
+        FileUtils.writeLines(file, "ISO8859-15", Arrays.asList(deltaLine("sgh1301", "19950101", "Gone", '2')));
+        importer.setImportAllLines(false);
+        importer.process(file, new CollectingSink<Organisation>());
+    }
+
+    private static String deltaLine(String typeAndCode, String validFrom, String text, char operation) {
+        StringBuilder sb = new StringBuilder(typeAndCode);
+        pad(sb, 23).append(validFrom).append(validFrom).append("25000101");
+        pad(sb, 47).append(text);
+        return pad(sb, 187).append(operation).toString();
+    }
+
+    private static StringBuilder pad(StringBuilder sb, int length) {
+        while (sb.length() < length) {
+            sb.append(' ');
+        }
+        return sb;
+    }
+
+    private static void assertSameRecords(List<Organisation> expected, List<Organisation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Organisation e = expected.get(i);
+            Organisation a = actual.get(i);
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getCode(), a.getCode());
+            assertEquals(e.getText(), a.getText());
+            assertEquals(e.getValidFrom(), a.getValidFrom());
+            assertEquals(e.getValidTo(), a.getValidTo());
+        }
+    }
+
+    @Test
+    public void writerFailureIsRethrownToTheParser() {
+        final RuntimeException failure = new RuntimeException("db down");
+        BufferedRecordSink<Organisation> sink = new BufferedRecordSink<Organisation>(new CollectingSink<Organisation>() {
+            @Override
+            public void add(Organisation record) {
+                throw failure;
+            }
+        }, 4, "test");
+        try {
+            importer.process(toFile(getClass().getClassLoader().getResource(completeTxt)), sink);
+            sink.close();
+            fail("expected the writer failure");
+        } catch (RuntimeException e) {
+            assertSame(failure, e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private static boolean isCollected(WeakReference<?> reference) {
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+        }
+        return reference.get() == null;
+    }
+
+    static class CollectingSink<T> implements RecordSink<T> {
+        List<T> records = new ArrayList<T>();
+        int closed;
+
+        @Override
+        public void add(T record) {
+            records.add(record);
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
 }
@@ -148,6 +148,31 @@ public class ImportStatusRepositoryJdbcImplIT {
 		assertEquals(expectedStatus, latestStatus);
 	}
 
+	@Test
+	public void returnsTheDigestOfTheLatestSuccessfulImport() throws InterruptedException {
+		statusRepo.importStartedAt(new DateTime(), TYPE);
+		statusRepo.importEndedWithSuccess(new DateTime(), TYPE, "abc");
+		Thread.sleep(1000);
+		statusRepo.importStartedAt(new DateTime(), TYPE);
+
+		// the open status of the running import is not a finished run
+		assertEquals("abc", statusRepo.getLastSuccessfulDigest(TYPE));
+	}
+
+	@Test
+	public void returnsNoDigestWhenTheLatestImportFailed() throws InterruptedException {
+		statusRepo.importStartedAt(new DateTime(), TYPE);
+		statusRepo.importEndedWithSuccess(new DateTime(), TYPE, "abc");
+		Thread.sleep(1000);
+		statusRepo.importStartedAt(new DateTime(), TYPE);
+		statusRepo.importEndedWithFailure(new DateTime(), "ErrorMessage", TYPE);
+		Thread.sleep(1000);
+		// the same file again, it must be loaded over whatever the failed import left
+		statusRepo.importStartedAt(new DateTime(), TYPE);
+
+		assertNull(statusRepo.getLastSuccessfulDigest(TYPE));
+	}
+
 	@Test
 	public void whenTwoOpenStatusesExistsInDbEndingOnlyUpdatesTheLatest() throws InterruptedException {
 		DateTime startTimeOldest = new DateTime().withMillisOfSecond(0);
@@ -0,0 +1,142 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FixedWidthScannerTest {
+    private static final Charset LATIN9 = Charset.forName("ISO8859-15");
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void linesEndLikeForReadLine() throws IOException {
+        byte[] bytes = "one\r\ntwo\rthree\n\nfour".getBytes("ISO8859-15");
+        List<String> expected = Arrays.asList("one", "two", "three", "", "four");
+        assertEquals(expected, lines(FixedWidthScanner.read(new ByteArrayInputStream(bytes), LATIN9)));
+
+        File file = tmpDir.newFile("lines.txt");
+        FileUtils.writeByteArrayToFile(file, bytes);
+        assertEquals(expected, lines(FixedWidthScanner.map(file, LATIN9)));
+    }
+
+    @Test
+    public void linesLongerThanTheWindowAreRead() throws IOException {
+        char[] chars = new char[200000];
+        Arrays.fill(chars, 'x');
+        String longLine = new String(chars);
+        byte[] bytes = ("short\r" + longLine + "\r\nlast\n").getBytes("ISO8859-15");
+        assertEquals(Arrays.asList("short", longLine, "last"), lines(FixedWidthScanner.read(
+                new ByteArrayInputStream(bytes), LATIN9)));
+    }
+
+    @Test
+    public void splitRangesHoldTheSameLines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String[] endings = { "\n", "\r\n", "\r" };
+        for (int i = 0; i < 100; i++) {
+            sb.append("line ").append(i).append(endings[i % endings.length]);
+        }
+        File file = tmpDir.newFile("split.txt");
+        FileUtils.writeStringToFile(file, sb.toString(), "ISO8859-15");
+        FixedWidthScanner scanner = FixedWidthScanner.map(file, LATIN9);
+        List<String> expected = lines(FixedWidthScanner.map(file, LATIN9));
+
+        for (int parts = 1; parts < 40; parts++) {
+            List<String> actual = new ArrayList<String>();
+            for (FixedWidthScanner range : scanner.split(parts)) {
+                actual.addAll(lines(range));
+            }
+            assertEquals("split in " + parts, expected, actual);
+        }
+    }
+
+    @Test
+    public void fieldsAreDecodedWithTheCharset() throws IOException {
+        byte[] bytes = "afd  Euro €  20120131".getBytes("ISO8859-15");
+        FixedWidthScanner line = FixedWidthScanner.read(new ByteArrayInputStream(bytes), LATIN9);
+        assertTrue(line.next());
+        assertTrue(line.regionMatchesIgnoreCase(0, "AFD"));
+        assertFalse(line.regionMatchesIgnoreCase(0, "sgh"));
+        assertFalse(line.regionMatchesIgnoreCase(line.length() - 2, "123"));
+        assertEquals("Euro €", line.trimmed(3, 13));
+        assertEquals("Euro €", line.trimmedField(3, 13).toString());
+        assertEquals('€', line.trimmedField(3, 13).charAt(5));
+        assertEquals("ro", line.field(5, 13).subSequence(2, 4).toString());
+        assertEquals(20120131, line.digits(13, 21));
+        assertFalse(line.next());
+    }
+
+    @Test
+    public void recordTypesAreLookedUpIgnoringCase() throws IOException {
+        RecordTypeTable<String> table = new RecordTypeTable<String>();
+        for (String type : new String[] { "afd", "SGH", "dia", "opr", "und", "pro", "beh", "til", "res", "adm" }) {
+            table.put(type, type);
+        }
+        assertEquals(10, table.size());
+        assertEquals("SGH", table.get("sgh"));
+
+        byte[] bytes = "AFDx\nsgh\nxyz\nab\n".getBytes("ISO8859-15");
+        FixedWidthScanner line = FixedWidthScanner.read(new ByteArrayInputStream(bytes), LATIN9);
+        List<String> found = new ArrayList<String>();
+        while (line.next()) {
+            found.add(table.get(line.packLowerCase(0, RecordTypeTable.TYPE_LENGTH)));
+        }
+        assertEquals(Arrays.asList("afd", "SGH", null, null), found);
+    }
+
+    @Test(expected = StringIndexOutOfBoundsException.class)
+    public void fieldsPastTheEndOfTheLineFail() throws IOException {
+        FixedWidthScanner line = FixedWidthScanner.read(new ByteArrayInputStream("afd".getBytes()), LATIN9);
+        line.next();
+        line.charAt(3);
+    }
+
+    private static List<String> lines(FixedWidthScanner scanner) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (scanner.next()) {
+            lines.add(scanner.line());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+public class DateCodecTest {
+    @Test
+    public void epochDaysAreLocalMidnight() {
+        Calendar calendar = new GregorianCalendar();
+        calendar.clear();
+        calendar.set(1900, Calendar.JANUARY, 1);
+        while (calendar.get(Calendar.YEAR) < 2600) {
+            int year = calendar.get(Calendar.YEAR);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            int day = calendar.get(Calendar.DAY_OF_MONTH);
+            int epochDay = DateCodec.epochDay(year, month, day);
+            assertEquals(year + "-" + month + "-" + day, calendar.getTimeInMillis(), DateCodec.toMillis(epochDay));
+            calendar.add(Calendar.DATE, 1);
+            assertEquals(calendar.getTimeInMillis(), DateCodec.toMillis(epochDay + 1));
+        }
+        assertEquals(0, DateCodec.epochDay(1970, 1, 1));
+    }
+
+    @Test
+    public void parseIsLikeSimpleDateFormat() throws ParseException {
+        String[] basic = { "25000101", "20120229", "20120230", "2012013", "201201011", "20120101x", "2012-01-01" };
+        for (String value : basic) {
+            assertParsedLikeSimpleDateFormat(value, DateCodec.BASIC_PATTERN);
+        }
+        String[] iso = { "2500-01-01", "2012-02-29", "2011-02-29", "2012-1-1", "2012-01-011", "2012-01-01+01:00",
+                "2012-01-01T10:00:00", "20120101" };
+        for (String value : iso) {
+            assertParsedLikeSimpleDateFormat(value, DateCodec.ISO_PATTERN);
+        }
+    }
+
+    @Test
+    public void invalidBasicDatesFail() {
+        String[] invalid = { "20121301", "20120230", "2012010x", "2012010" };
+        for (String value : invalid) {
+            try {
+                DateCodec.parseBasic(value, 0);
+                fail(value);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertParsedLikeSimpleDateFormat(String value, String pattern) throws ParseException {
+        Object expected;
+        try {
+            expected = new SimpleDateFormat(pattern).parse(value);
+        } catch (ParseException e) {
+            expected = e.getClass();
+        }
+        Object actual;
+        try {
+            actual = DateCodec.parse(value, pattern);
+        } catch (ParseException e) {
+            actual = e.getClass();
+        }
+        assertEquals(value, expected, actual);
+    }
+}
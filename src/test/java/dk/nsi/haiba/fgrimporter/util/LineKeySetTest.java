@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+
+public class LineKeySetTest {
+    @Test
+    public void equalLinesAreAddedOnce() {
+        LineKeySet set = new LineKeySet();
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(set.add(line("A" + i, i)));
+        }
+        for (int i = 0; i < 5000; i += 7) {
+            assertFalse(set.add(line("A" + i, i)));
+        }
+        assertTrue(set.add(line("A4999", 4998)));
+        assertEquals(5001, set.size());
+    }
+
+    @Test
+    public void theTextIsNotPartOfTheKey() {
+        LineKeySet set = new LineKeySet();
+        SKSLine otherText = line("A1", 1);
+        otherText.setText("other");
+        assertTrue(set.add(line("A1", 1)));
+        assertFalse(set.add(otherText));
+    }
+
+    @Test
+    public void linesWithoutDatesHaveKeysOfTheirOwn() {
+        LineKeySet set = new LineKeySet();
+        SKSLine noValidTo = line("A1", 1);
+        noValidTo.setValidTo(null);
+        assertTrue(set.add(line("A1", 1)));
+        assertTrue(set.add(noValidTo));
+        noValidTo = line("A1", 1);
+        noValidTo.setValidTo(null);
+        assertFalse(set.add(noValidTo));
+    }
+
+    private static SKSLine line(String code, int day) {
+        SKSLine line = new SKSLine();
+        line.setType("dia");
+        line.setCode(code);
+        line.setText("text");
+        line.setValidFrom(new Date(day * 86400000L));
+        line.setValidTo(new Date((day + 1) * 86400000L));
+        return line;
+    }
+}
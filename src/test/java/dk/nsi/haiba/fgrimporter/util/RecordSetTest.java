@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.nsi.haiba.fgrimporter.model.SKSLine;
+
+public class RecordSetTest {
+    @Test
+    public void equalRecordsAreAddedOnceInInsertionOrder() {
+        RecordSet<SKSLine> set = new RecordSet<SKSLine>();
+        List<SKSLine> expected = new ArrayList<SKSLine>();
+        for (int i = 0; i < 5000; i++) {
+            SKSLine line = line("A" + i, i);
+            assertTrue(set.add(line));
+            expected.add(line);
+        }
+        for (int i = 0; i < 5000; i += 7) {
+            assertFalse(set.add(line("A" + i, i)));
+        }
+        assertEquals(5000, set.size());
+        assertEquals(expected, new ArrayList<SKSLine>(set));
+        assertTrue(set.contains(line("A4999", 4999)));
+        assertFalse(set.contains(line("A4999", 4998)));
+    }
+
+    @Test
+    public void theTextIsNotPartOfTheIdentity() {
+        RecordSet<SKSLine> set = new RecordSet<SKSLine>();
+        SKSLine line = line("A1", 1);
+        SKSLine otherText = line("A1", 1);
+        otherText.setText("other");
+        assertTrue(set.add(line));
+        assertFalse(set.add(otherText));
+    }
+
+    private static SKSLine line(String code, int day) {
+        SKSLine line = new SKSLine();
+        line.setType("dia");
+        line.setCode(code);
+        line.setText("text");
+        line.setValidFrom(new Date(day * 86400000L));
+        line.setValidTo(new Date((day + 1) * 86400000L));
+        return line;
+    }
+}
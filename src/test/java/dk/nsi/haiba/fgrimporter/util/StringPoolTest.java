@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.fgrimporter.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StringPoolTest {
+    @Test
+    public void repeatedValuesAreTheSameString() {
+        StringPool pool = new StringPool(16, 10);
+        String afd = pool.intern(new StringBuilder("afd"));
+        assertEquals("afd", afd);
+        assertSame(afd, pool.intern(new StringBuilder("afd")));
+        assertSame(afd, pool.intern("afd"));
+        assertEquals(2, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertNull(pool.intern(null));
+    }
+
+    @Test
+    public void longValuesAreNotPooled() {
+        StringPool pool = new StringPool(16, 3);
+        String value = pool.intern("abcd");
+        assertNotSame(value, pool.intern(new StringBuilder("abcd")));
+        assertEquals(0, pool.getHits() + pool.getMisses());
+    }
+
+    @Test
+    public void poolHoldsAtMostItsCapacity() {
+        StringPool pool = new StringPool(4, 10);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + (i % 100), pool.intern("v" + (i % 100)));
+        }
+        assertEquals(1000, pool.getHits() + pool.getMisses());
+        // at most one value per slot survives
+        int pooled = 0;
+        for (int i = 0; i < 100; i++) {
+            String value = "v" + i;
+            if (pool.intern(value) != value) {
+                pooled++;
+            }
+        }
+        assertTrue(pooled <= 4);
+    }
+}